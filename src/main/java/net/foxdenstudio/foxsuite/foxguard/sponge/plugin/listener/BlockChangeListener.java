@@ -61,14 +61,14 @@ public class BlockChangeListener implements EventListener<ChangeBlockEvent> {
 
             Location<World> loc = oldBlock.getLocation().get();
             regionSet.addAll(this.regionCache.getRegionsBlock(loc.getBlockPosition(), (net.foxdenstudio.foxsuite.foxcore.platform.world.World) loc.getExtent()));
+        }
 
-            if (!regionSet.isEmpty()) {
-                logger.info("Block event of size {} occurred in the following regions: {}", event.getTransactions().size(), printRegions(regionSet));
-            }
-
-            EventData eventData = new EventData(event, rootFlagSet);
+        // Once per event, not per transaction. Large events can carry thousands of transactions.
+        if (!regionSet.isEmpty()) {
+            logger.info("Block event of size {} occurred in the following regions: {}", event.getTransactions().size(), printRegions(regionSet));
         }
 
+        EventData eventData = new EventData(event, rootFlagSet);
     }
 
     private static String printRegions(Collection<FoxRegion> collection) {
@@ -32,6 +32,8 @@ import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag.FlagRegistry;
 import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag.Flags;
 import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.listener.*;
 import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.misc.FGContextCalculator;
+import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util.DisconnectRegistry;
+import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util.UserCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongepowered.api.Game;
@@ -340,6 +342,8 @@ public final class FoxGuardMain {
     private void registerEventListeners() {
         FGConfigManager configManager = FGConfigManager.getInstance();
         registerListeners(FlagRegistry.getInstance());
+        registerListeners(UserCache.getInstance());
+        registerListeners(DisconnectRegistry.getInstance());
         registerListener(ChangeBlockEvent.class, Order.LATE, new BlockChangeListener());
         registerListener(InteractBlockEvent.class, Order.LATE, new InteractBlockListener());
         registerListener(InteractEntityEvent.class, Order.LATE, new InteractEntityListener());
@@ -46,6 +46,7 @@ public final class FGConfigManager {
     private boolean saveWorldRegionsInWorldFolders = true;
     private boolean useConfigFolder = false;
     private int nameLengthLimit = 24;
+    private int groupMembershipCacheSeconds = 60;
 
     private Map<ListenerModule, String> modules = new EnumMap<>(ListenerModule.class);
 
@@ -100,6 +101,10 @@ public final class FGConfigManager {
         root.getNode("general", "nameLengthLimit").setComment("The length limit for object names. Use 0 or lower for no limit.\n" +
                 "Extremely long names can cause a variety of unfixable issues. You have been warned.")
                 .setValue(nameLengthLimit);
+        root.getNode("general", "groupMembershipCacheSeconds").setComment("How long group handlers remember which of their groups a user belongs to, in seconds.\n" +
+                "Announced permission and context changes are picked up immediately regardless.\n" +
+                "This only bounds how long changes the permission plugin does not announce, such as expiring nodes, can go unnoticed.")
+                .setValue(groupMembershipCacheSeconds);
 
         for (ListenerModule m : ListenerModule.values()) {
             CommentedConfigurationNode node = root.getNode("module", m.getName()).setValue(this.modules.get(m));
@@ -138,6 +143,7 @@ public final class FGConfigManager {
         saveWorldRegionsInWorldFolders = root.getNode("storage", "saveWorldRegionsInWorldFolders").getBoolean(true);
         useConfigFolder = root.getNode("storage", "useConfigFolder").getBoolean(false);
         nameLengthLimit = root.getNode("general", "nameLengthLimit").getInt(24);
+        groupMembershipCacheSeconds = root.getNode("general", "groupMembershipCacheSeconds").getInt(60);
         for (ListenerModule m : ListenerModule.values()) {
             this.modules.put(m, root.getNode("module", m.getName()).getString(m.getDefaultValue()));
         }
@@ -166,6 +172,10 @@ public final class FGConfigManager {
         return nameLengthLimit;
     }
 
+    public int getGroupMembershipCacheSeconds() {
+        return groupMembershipCacheSeconds;
+    }
+
     public Map<ListenerModule, String> getModules() {
         return this.modules;
     }
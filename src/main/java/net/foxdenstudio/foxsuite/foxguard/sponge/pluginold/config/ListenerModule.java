@@ -27,7 +27,7 @@ public enum ListenerModule {
             }
             PlayerMoveListener pml = new PlayerMoveListener(true);
             plugin.registerListener(MoveEntityEvent.class, pml);
-            //plugin.registerListeners(pml.new Listeners());
+            plugin.registerListeners(pml.new Listeners());
             return setting;
         }
     },;
@@ -32,7 +32,9 @@ import org.spongepowered.api.event.game.state.GameStartingServerEvent;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by Fox on 5/25/2016.
@@ -43,6 +45,8 @@ public class FlagRegistry {
 
     private final List<Flag> flagList = new ArrayList<>();
     private final HashMap<String, Flag> flagMap = new HashMap<>();
+    private final Map<FlagSet, FlagSet> flagSetPool = new ConcurrentHashMap<>();
+    private final List<FlagSet> flagSetList = new ArrayList<>();
     private int nextAvailableIndex = 0;
     private boolean locked = false;
 
@@ -84,6 +88,44 @@ public class FlagRegistry {
         return this.flagList.size();
     }
 
+    /**
+     * Returns the pooled instance equal to the given set, adding it to the pool if it is new.
+     * Pooled sets are numbered densely from zero in order of first use,
+     * so handlers can cache results in arrays indexed by {@link FlagSet#ordinal()}.
+     *
+     * @param flagSet the flag set to intern
+     * @return the canonical flag set
+     */
+    public FlagSet intern(FlagSet flagSet) {
+        if (flagSet.isInterned()) return flagSet;
+        FlagSet canonical = flagSetPool.get(flagSet);
+        if (canonical != null) return canonical;
+        synchronized (flagSetList) {
+            canonical = flagSetPool.get(flagSet);
+            if (canonical == null) {
+                canonical = flagSet.withOrdinal(flagSetList.size());
+                flagSetList.add(canonical);
+                flagSetPool.put(canonical, canonical);
+            }
+            return canonical;
+        }
+    }
+
+    public FlagSet getFlagSet(int ordinal) {
+        synchronized (flagSetList) {
+            return flagSetList.get(ordinal);
+        }
+    }
+
+    /**
+     * The number of interned flag sets. Ordinals are always less than this value.
+     *
+     * @return the size of the flag set pool
+     */
+    public int getNumFlagSets() {
+        return flagSetPool.size();
+    }
+
     @Listener
     public void onServerStarting(GameStartingServerEvent event) {
         locked = true;
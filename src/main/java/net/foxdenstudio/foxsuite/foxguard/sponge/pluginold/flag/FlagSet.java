@@ -36,13 +36,61 @@ import java.util.Set;
 public class FlagSet {
 
     private static final FlagRegistry FLAG_REGISTRY = FlagRegistry.getInstance();
+    private static final long[] NO_WORDS = new long[0];
 
-    private final boolean[] flags;
-    private int hash;
+    /**
+     * Flag bits, one per flag id. Trailing zero words are always trimmed,
+     * so sets built before and after late flag registrations still compare equal.
+     */
+    private final long[] words;
+    private final int hash;
+    /**
+     * Dense index handed out by the {@link FlagRegistry} pool, or -1 if this set was never interned.
+     */
+    private final int ordinal;
+    private Set<Flag> flagSet;
 
     public FlagSet(boolean[] flags) {
-        this.flags = flags;
-        this.hash = Arrays.hashCode(flags);
+        this(wordsFromArray(flags));
+    }
+
+    private FlagSet(long[] words) {
+        this.words = trim(words);
+        this.hash = Arrays.hashCode(this.words);
+        this.ordinal = -1;
+    }
+
+    private FlagSet(FlagSet source, int ordinal) {
+        this.words = source.words;
+        this.hash = source.hash;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Returns the canonical instance for the given flags.
+     * Canonical sets may be compared by identity and carry an {@link #ordinal()}.
+     *
+     * @param flags the flags, indexed by flag id
+     * @return the pooled flag set
+     */
+    public static FlagSet intern(boolean[] flags) {
+        return FLAG_REGISTRY.intern(new FlagSet(flags));
+    }
+
+    public static FlagSet of(Flag... flags) {
+        long[] words = new long[wordCount(FLAG_REGISTRY.getNumFlags())];
+        for (Flag flag : flags) {
+            words[flag.id >>> 6] |= 1L << flag.id;
+        }
+        return new FlagSet(words);
+    }
+
+    public static FlagSet of(Iterable<Flag> flags) {
+        long[] words = new long[wordCount(FLAG_REGISTRY.getNumFlags())];
+        for (Flag flag : flags) {
+            words[flag.id >>> 6] |= 1L << flag.id;
+        }
+        return new FlagSet(words);
     }
 
     public static boolean[] arrayFromFlags(Flag... flags) {
@@ -53,28 +101,68 @@ public class FlagSet {
         return array;
     }
 
+    public FlagSet intern() {
+        return this.ordinal >= 0 ? this : FLAG_REGISTRY.intern(this);
+    }
+
+    public boolean isInterned() {
+        return this.ordinal >= 0;
+    }
+
+    public int ordinal() {
+        return this.ordinal;
+    }
+
     public boolean get(Flag flag) {
-        return this.flags[flag.id];
+        return get(flag.id);
     }
 
     public boolean get(int flag) {
-        return this.flags[flag];
+        int word = flag >>> 6;
+        return word < this.words.length && (this.words[word] & (1L << flag)) != 0;
+    }
+
+    /**
+     * Tests whether every flag in the given set is also in this one.
+     * This is the check handlers use to match entries, and is a single AND per word.
+     *
+     * @param other the set that should be a subset of this one
+     * @return whether this set is a superset of {@code other}
+     */
+    public boolean containsAll(FlagSet other) {
+        long[] otherWords = other.words;
+        if (otherWords.length > this.words.length) return false;
+        for (int i = 0; i < otherWords.length; i++) {
+            if ((otherWords[i] & ~this.words[i]) != 0) return false;
+        }
+        return true;
+    }
+
+    public boolean isEmpty() {
+        return this.words.length == 0;
     }
 
     public Set<Flag> toFlagSet() {
-        ImmutableSet.Builder<Flag> builder = ImmutableSet.builder();
-        for (int i = 0; i < flags.length; i++) {
-            if (this.flags[i]) builder.add(FLAG_REGISTRY.getFlag(i));
+        if (this.flagSet == null) {
+            ImmutableSet.Builder<Flag> builder = ImmutableSet.builder();
+            for (int i = 0; i < this.words.length; i++) {
+                long word = this.words[i];
+                while (word != 0) {
+                    builder.add(FLAG_REGISTRY.getFlag((i << 6) + Long.numberOfTrailingZeros(word)));
+                    word &= word - 1;
+                }
+            }
+            this.flagSet = builder.build();
         }
-        return builder.build();
+        return this.flagSet;
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass() || this.hash != o.hashCode()) return false;
+        if (o == null || getClass() != o.getClass()) return false;
         FlagSet flagSet = (FlagSet) o;
-        return Arrays.equals(flags, flagSet.flags);
+        return this.hash == flagSet.hash && Arrays.equals(this.words, flagSet.words);
     }
 
     @Override
@@ -82,8 +170,36 @@ public class FlagSet {
         return hash;
     }
 
+    @Override
+    public String toString() {
+        return "FlagSet" + toFlagSet();
+    }
+
     @Override
     protected FlagSet clone() {
-        return new FlagSet(this.flags.clone());
+        return new FlagSet(this.words.clone());
+    }
+
+    FlagSet withOrdinal(int ordinal) {
+        return new FlagSet(this, ordinal);
+    }
+
+    private static int wordCount(int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static long[] wordsFromArray(boolean[] flags) {
+        long[] words = new long[wordCount(flags.length)];
+        for (int i = 0; i < flags.length; i++) {
+            if (flags[i]) words[i >>> 6] |= 1L << i;
+        }
+        return words;
+    }
+
+    private static long[] trim(long[] words) {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) length--;
+        if (length == 0) return NO_WORDS;
+        return length == words.length ? words : Arrays.copyOf(words, length);
     }
 }
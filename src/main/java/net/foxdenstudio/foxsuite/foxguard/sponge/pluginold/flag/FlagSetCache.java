@@ -0,0 +1,105 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
+
+/**
+ * Memoizes a function of a flag set in an array indexed by interned flag set ordinal.
+ * Use {@link TristateCache} when the values are {@link org.spongepowered.api.util.Tristate}s.
+ * The loader may return null, which is cached like any other result.
+ * <p>
+ * Like {@link TristateCache}, this is lock-free and clearing it swaps in a new table,
+ * so results computed before a clear are never visible after it.
+ */
+public class FlagSetCache<V> {
+
+    private static final FlagRegistry FLAG_REGISTRY = FlagRegistry.getInstance();
+    private static final Object NOT_COMPUTED = null;
+    private static final Object NONE = new Object();
+
+    private final Function<FlagSet, V> loader;
+    private final AtomicReference<Table> table = new AtomicReference<>(new Table(new AtomicReferenceArray<>(0), 0));
+
+    public FlagSetCache(Function<FlagSet, V> loader) {
+        this.loader = loader;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(FlagSet flags) {
+        int ordinal = flags.ordinal();
+        if (ordinal < 0) {
+            flags = flags.intern();
+            ordinal = flags.ordinal();
+        }
+        Table table = this.table.get();
+        if (ordinal < table.values.length()) {
+            Object value = table.values.get(ordinal);
+            if (value != NOT_COMPUTED) return value == NONE ? null : (V) value;
+        }
+        V value = this.loader.apply(flags);
+        store(table, ordinal, value == null ? NONE : value);
+        return value;
+    }
+
+    public void clear() {
+        Table current;
+        do {
+            current = this.table.get();
+        } while (!this.table.compareAndSet(current, new Table(new AtomicReferenceArray<>(current.values.length()), current.generation + 1)));
+    }
+
+    private void store(Table table, int ordinal, Object value) {
+        while (ordinal >= table.values.length()) {
+            int length = Math.max(ordinal + 1, FLAG_REGISTRY.getNumFlagSets());
+            AtomicReferenceArray<Object> values = new AtomicReferenceArray<>(length);
+            for (int i = 0; i < table.values.length(); i++) {
+                values.lazySet(i, table.values.get(i));
+            }
+            Table grown = new Table(values, table.generation);
+            if (this.table.compareAndSet(table, grown)) {
+                table = grown;
+            } else {
+                Table current = this.table.get();
+                if (current.generation != table.generation) return;
+                table = current;
+            }
+        }
+        table.values.set(ordinal, value);
+    }
+
+    private static final class Table {
+        private final AtomicReferenceArray<Object> values;
+        private final int generation;
+
+        private Table(AtomicReferenceArray<Object> values, int generation) {
+            this.values = values;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag;
+
+import org.spongepowered.api.util.Tristate;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Memoizes a flag set to {@link Tristate} function in a byte array indexed by interned flag set ordinal.
+ * A hit is a single array load, with no hashing or boxing.
+ * The loader may return null, which is cached like any other result.
+ * <p>
+ * The cache is safe to use from any thread without locking.
+ * {@link #clear()} swaps in a new table rather than wiping the current one,
+ * so a loader that was already running when the cache was cleared writes its possibly stale result
+ * into the discarded table, where no later lookup will see it.
+ * Callers must therefore update whatever the loader reads <i>before</i> clearing.
+ */
+public class TristateCache {
+
+    private static final FlagRegistry FLAG_REGISTRY = FlagRegistry.getInstance();
+    private static final Tristate[] STATES = Tristate.values();
+    private static final byte NOT_COMPUTED = 0;
+    private static final byte NONE = 1;
+
+    private final Function<FlagSet, Tristate> loader;
+    private final AtomicReference<Table> table = new AtomicReference<>(new Table(new byte[0], 0));
+
+    public TristateCache(Function<FlagSet, Tristate> loader) {
+        this.loader = loader;
+    }
+
+    @Nullable
+    public Tristate get(FlagSet flags) {
+        int ordinal = flags.ordinal();
+        if (ordinal < 0) {
+            flags = flags.intern();
+            ordinal = flags.ordinal();
+        }
+        Table table = this.table.get();
+        if (ordinal < table.states.length) {
+            byte code = table.states[ordinal];
+            if (code != NOT_COMPUTED) return decode(code);
+        }
+        Tristate state = this.loader.apply(flags);
+        store(table, ordinal, encode(state));
+        return state;
+    }
+
+    public void clear() {
+        Table current;
+        do {
+            current = this.table.get();
+        } while (!this.table.compareAndSet(current, new Table(new byte[current.states.length], current.generation + 1)));
+    }
+
+    /**
+     * Stores a result in the table it was computed against, growing that table if needed.
+     * If the cache was cleared in the meantime the result is dropped.
+     */
+    private void store(Table table, int ordinal, byte code) {
+        while (ordinal >= table.states.length) {
+            int length = Math.max(ordinal + 1, FLAG_REGISTRY.getNumFlagSets());
+            Table grown = new Table(Arrays.copyOf(table.states, length), table.generation);
+            if (this.table.compareAndSet(table, grown)) {
+                table = grown;
+            } else {
+                Table current = this.table.get();
+                if (current.generation != table.generation) return;
+                table = current;
+            }
+        }
+        table.states[ordinal] = code;
+    }
+
+    private static byte encode(@Nullable Tristate state) {
+        return state == null ? NONE : (byte) (state.ordinal() + 2);
+    }
+
+    @Nullable
+    private static Tristate decode(byte code) {
+        return code == NONE ? null : STATES[code - 2];
+    }
+
+    private static final class Table {
+        private final byte[] states;
+        private final int generation;
+
+        private Table(byte[] states, int generation) {
+            this.states = states;
+            this.generation = generation;
+        }
+    }
+}
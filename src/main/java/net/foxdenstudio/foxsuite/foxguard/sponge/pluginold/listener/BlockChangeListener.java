@@ -73,7 +73,7 @@ public class BlockChangeListener implements EventListener<ChangeBlockEvent> {
         //FoxGuardMain.instance().getLogger().info(player.getName());
 
         List<Transaction<BlockSnapshot>> transactions = event.getTransactions();
-        //Set<IHandler> handlerSet = new HashSet<>();
+        //HandlerChain handlers;
         if (transactions.size() == 1) {
             Optional<Location<World>> locOpt = FGUtil.getLocation(transactions.get(0));
             if(!locOpt.isPresent()) return;
@@ -81,23 +81,20 @@ public class BlockChangeListener implements EventListener<ChangeBlockEvent> {
             Vector3i pos = loc.getBlockPosition();
             World world = loc.getExtent();
 
-            /*FGManager.getInstance().getRegionsInChunkAtPos(world, pos).stream()
-                    .filter(region -> region.contains(pos, world))
-                    .forEach(region -> region.getHandlers().stream()
-                            .filter(IFGObject::isEnabled)
-                            .forEach(handlerSet::add));*/
+            //handlers = FGManager.getInstance().getHandlers(world, pos);
         } else {
-            /*FGManager.getInstance().getRegionsAtMultiLocI(
-                    transactions.stream()
-                            .map(FGUtil::getLocation)
-                            .filter(Optional::isPresent)
-                            .map(Optional::get)
-                            .collect(Collectors.toList())
-            ).forEach(region -> region.getHandlers().stream()
-                    .filter(IFGObject::isEnabled)
-                    .forEach(handlerSet::add));*/
+            /*Map<World, List<Vector3i>> positions = transactions.stream()
+                    .map(FGUtil::getLocation)
+                    .filter(Optional::isPresent)
+                    .map(Optional::get)
+                    .collect(Collectors.groupingBy(Location::getExtent,
+                            Collectors.mapping(Location::getBlockPosition, Collectors.toList())));
+            if (positions.isEmpty()) return;
+            handlers = positions.size() == 1
+                    ? FGManager.getInstance().getHandlers(positions.keySet().iterator().next(), positions.values().iterator().next())
+                    : FGManager.getInstance().getHandlers(positions);*/
         }
-//        if(handlerSet.size() == 0) return;
+//        if(handlers.isEmpty()) return;
 
 
         User user;
@@ -120,20 +117,9 @@ public class BlockChangeListener implements EventListener<ChangeBlockEvent> {
         else if (event instanceof ChangeBlockEvent.Grow) flags[GROW.id] = true;
         else if (event instanceof ChangeBlockEvent.Post) flags[POST.id] = true;
 
-        FlagSet flagSet = new FlagSet(flags);
+        FlagSet flagSet = FlagSet.intern(flags);
 
-        /*List<IHandler> handlerList = new ArrayList<>(handlerSet);
-        Collections.sort(handlerList);
-        int currPriority = handlerList.get(0).getPriority();
-        Tristate flagState = UNDEFINED;
-        for (IHandler handler : handlerList) {
-            if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                break;
-            }
-            //flagState = flagState.and(handler.handle(user, typeFlag, Optional.of(event)).getState());
-            flagState = flagState.and(handler.handle(user, flagSet, ExtraContext.of(event)).getState());
-            currPriority = handler.getPriority();
-        }*/
+        //Tristate flagState = handlers.evaluate(user, flagSet, ExtraContext.of(event));
 //        if(flagState == UNDEFINED) flagState = TRUE;
 
         /*if (flagState == FALSE) {
@@ -59,9 +59,9 @@ public class DamageListener implements EventListener<DamageEntityEvent> {
     private static final EntityFlagCalculator ENTITY_FLAG_CALCULATOR = EntityFlagCalculator.getInstance();
     private static final boolean[] BASE_FLAGS_SOURCE = FlagSet.arrayFromFlags(ROOT, DEBUFF, DAMAGE, ENTITY);
     private static final boolean[] INVINCIBLE_FLAGS = FlagSet.arrayFromFlags(ROOT, BUFF, INVINCIBLE);
-    private static final FlagSet INVINCIBLE_FLAG_SET = new FlagSet(INVINCIBLE_FLAGS);
+    private static final FlagSet INVINCIBLE_FLAG_SET = FlagSet.intern(INVINCIBLE_FLAGS);
     private static final boolean[] UNDYING_FLAGS = FlagSet.arrayFromFlags(ROOT, BUFF, INVINCIBLE, UNDYING);
-    private static final FlagSet UNDYING_FLAG_SET = new FlagSet(UNDYING_FLAGS);
+    private static final FlagSet UNDYING_FLAG_SET = FlagSet.intern(UNDYING_FLAGS);
 
     @SuppressWarnings("Duplicates")
     @Override
@@ -72,27 +72,12 @@ public class DamageListener implements EventListener<DamageEntityEvent> {
         Vector3d pos = event.getTargetEntity().getLocation().getPosition();
         Entity entity = event.getTargetEntity();
 
-        /*List<IHandler> handlerList = new ArrayList<>();
-        FGManager.getInstance().getRegionsInChunkAtPos(world, pos).stream()
-                .filter(region -> region.contains(pos, world))
-                .forEach(region -> region.getHandlers().stream()
-                        .filter(IFGObject::isEnabled)
-                        .filter(handler -> !handlerList.contains(handler))
-                        .forEach(handlerList::add));
-
-        Collections.sort(handlerList);*/
-        int currPriority;
+        //HandlerChain handlers = FGManager.getInstance().getHandlers(world, pos.toInt());
+        //ExtraContext extra = ExtraContext.of(event);
         Tristate flagState = UNDEFINED;
         boolean invincible = false;
         if (entity instanceof Player) {
-           /* currPriority = handlerList.get(0).getPriority();
-            for (IHandler handler : handlerList) {
-                if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                    break;
-                }
-                flagState = flagState.and(handler.handle((Player) entity, INVINCIBLE_FLAG_SET, ExtraContext.of(event)).getState());
-                currPriority = handler.getPriority();
-            }*/
+            //flagState = handlers.evaluate((Player) entity, INVINCIBLE_FLAG_SET, extra);
 //            if(flagState == UNDEFINED) flagState = FALSE;
             if (flagState == TRUE) {
                 invincible = true;
@@ -111,16 +96,9 @@ public class DamageListener implements EventListener<DamageEntityEvent> {
             ENTITY_FLAG_CALCULATOR.applyEntityFlags(ImmutableList.of(entity), flags);
 
 
-            flagSet = new FlagSet(flags);
-//            currPriority = handlerList.get(0).getPriority();
+            flagSet = FlagSet.intern(flags);
             flagState = UNDEFINED;
-            /*for (IHandler handler : handlerList) {
-                if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                    break;
-                }
-                flagState = flagState.and(handler.handle(player, flagSet, ExtraContext.of(event)).getState());
-                currPriority = handler.getPriority();
-            }*/
+            //flagState = handlers.evaluate(player, flagSet, extra);
 //            if(flagState == UNDEFINED) flagState = TRUE;
         }
         if (flagState == FALSE) {
@@ -133,14 +111,7 @@ public class DamageListener implements EventListener<DamageEntityEvent> {
                 flagState = UNDEFINED;
                 invincible = false;
                 if (entity instanceof Player) {
-                   /* currPriority = handlerList.get(0).getPriority();
-                    for (IHandler handler : handlerList) {
-                        if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                            break;
-                        }
-                        flagState = flagState.and(handler.handle((Player) entity, UNDYING_FLAG_SET, ExtraContext.of(event)).getState());
-                        currPriority = handler.getPriority();
-                    }*/
+                    //flagState = handlers.evaluate((Player) entity, UNDYING_FLAG_SET, extra);
 //                    if(flagState == UNDEFINED) flagState = FALSE;
                     if (flagState == TRUE) {
                         invincible = true;
@@ -150,17 +121,10 @@ public class DamageListener implements EventListener<DamageEntityEvent> {
                 if (!invincible) {
                     flags = flags.clone();
                     flags[KILL.id] = true;
-                    flagSet = new FlagSet(flags);
+                    flagSet = FlagSet.intern(flags);
 
-//                    currPriority = handlerList.get(0).getPriority();
                     flagState = UNDEFINED;
-                    /*for (IHandler handler : handlerList) {
-                        if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                            break;
-                        }
-                        flagState = flagState.and(handler.handle(player, flagSet, ExtraContext.of(event)).getState());
-                        currPriority = handler.getPriority();
-                    }*/
+                    //flagState = handlers.evaluate(player, flagSet, extra);
 //                    if(flagState == UNDEFINED) flagState = TRUE;
                 }
                 if (flagState == FALSE) {
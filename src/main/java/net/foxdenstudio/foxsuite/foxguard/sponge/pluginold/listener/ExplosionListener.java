@@ -25,9 +25,8 @@
 
 package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.listener;
 
-import com.flowpowered.math.vector.Vector3d;
-import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.FoxGuardMain;
 import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag.FlagSet;
+import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util.UserCache;
 import org.spongepowered.api.block.BlockSnapshot;
 import org.spongepowered.api.data.Transaction;
 import org.spongepowered.api.entity.explosive.Explosive;
@@ -36,7 +35,6 @@ import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.event.Cancellable;
 import org.spongepowered.api.event.EventListener;
 import org.spongepowered.api.event.world.ExplosionEvent;
-import org.spongepowered.api.service.user.UserStorageService;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.chat.ChatTypes;
 import org.spongepowered.api.util.Tristate;
@@ -53,27 +51,34 @@ public class ExplosionListener implements EventListener<ExplosionEvent> {
 
     private static final boolean[] FLAG_SET = FlagSet.arrayFromFlags(ROOT, DEBUFF, EXPLOSION);
 
+    private static final int MAX_TICK_AREAS = 64;
+
+    // TNT chains fire many explosions per tick, mostly within the same few areas.
+    // An explosion whose blocks all fall in a box around its centre where every block is in the same regions
+    // records that box with its handlers, and later explosions of any kind inside the box reuse them.
+    // Blasts that straddle a chunk column never fit, since the box cannot leave the centre's column, so they skip it.
+    // Boxes are dropped when the tick ends, or as soon as regions or handlers change. Worlds are held by id only.
+    /*private int cacheTick = -1;
+    private int cacheRegionEpoch;
+    private int cacheHandlerEpoch;
+    private final Map<UUID, List<Area>> tickAreas = new HashMap<>();*/
 
     @Override
     public void handle(ExplosionEvent event) throws Exception {
         if (!(event instanceof Cancellable) || ((Cancellable) event).isCancelled()) return;
 
-
         boolean[] flags = FLAG_SET.clone();
 
-//        Set<IHandler> handlerSet = new HashSet<>();
+//        HandlerChain handlers;
         if (event instanceof ExplosionEvent.Post) {
             ExplosionEvent.Post postEvent = (ExplosionEvent.Post) event;
             List<Transaction<BlockSnapshot>> transactions = postEvent.getTransactions();
             if(transactions.size() == 0) return;
 
-            /*FGManager.getInstance().getRegionsAtMultiLocI(
-                    transactions.stream()
-                            .map(trans -> trans.getOriginal().getLocation().get())
-                            .collect(Collectors.toList())
-            ).forEach(region -> region.getHandlers().stream()
-                    .filter(IFGObject::isEnabled)
-                    .forEach(handlerSet::add));*/
+            /*List<Vector3i> positions = transactions.stream()
+                    .map(trans -> trans.getOriginal().getPosition())
+                    .collect(Collectors.toList());
+            handlers = getHandlers(event.getExplosion(), RegionCache.BlockBounds.of(positions), positions);*/
 
             flags[POST.id] = true;
             flags[BLOCK.id] = true;
@@ -83,25 +88,19 @@ public class ExplosionListener implements EventListener<ExplosionEvent> {
             List<Location<World>> locations = detonateEvent.getAffectedLocations();
             if(locations.size() == 0) return;
 
-            /*FGManager.getInstance().getRegionsAtMultiLocI(locations)
-                    .forEach(region -> region.getHandlers().stream()
-                            .filter(IFGObject::isEnabled)
-                            .forEach(handlerSet::add));*/
+            /*List<Vector3i> positions = locations.stream()
+                    .map(Location::getBlockPosition)
+                    .collect(Collectors.toList());
+            handlers = getHandlers(event.getExplosion(), RegionCache.BlockBounds.of(positions), positions);*/
 
             flags[DETONATE.id] = true;
         } else if (event instanceof ExplosionEvent.Pre) {
-            Location<World> loc = event.getExplosion().getLocation();
-            Vector3d pos = loc.getPosition();
-            World world = loc.getExtent();
-            /*FGManager.getInstance().getRegionsInChunkAtPos(world, pos).stream()
-                    .filter(region -> region.contains(pos, world))
-                    .forEach(region -> region.getHandlers().stream()
-                            .filter(IFGObject::isEnabled)
-                            .forEach(handlerSet::add));*/
+            /*Vector3i pos = event.getExplosion().getLocation().getBlockPosition();
+            handlers = getHandlers(event.getExplosion(), RegionCache.BlockBounds.of(pos, pos), Collections.singletonList(pos));*/
 
             flags[PRE.id] = true;
         }
-        /*if(handlerSet.size() == 0){
+        /*if(handlers.isEmpty()){
             FoxGuardMain.instance().getLogger().warn("Handlers were empty for explosion listener!");
             return;
         }*/
@@ -118,25 +117,14 @@ public class ExplosionListener implements EventListener<ExplosionEvent> {
                 UUID uuid;
                 uuid = explosive.getNotifier().orElseGet(() -> explosive.getCreator().orElse(null));
                 if (uuid != null) {
-                    UserStorageService storageService = FoxGuardMain.instance().getUserStorage();
-                    user = storageService.get(uuid).orElse(null);
+                    user = UserCache.getInstance().get(uuid).orElse(null);
                 } else user = null;
             } else user = null;
         }
 
-        /*List<IHandler> handlerList = new ArrayList<>(handlerSet);
-
-        Collections.sort(handlerList);
-        int currPriority = handlerList.get(0).getPriority();*/
         Tristate flagState = Tristate.UNDEFINED;
-        FlagSet flagSet = new FlagSet(flags);
-        /*for (IHandler handler : handlerList) {
-            if (handler.getPriority() < currPriority && flagState != Tristate.UNDEFINED) {
-                break;
-            }
-            flagState = flagState.and(handler.handle(user, flagSet, ExtraContext.of(event)).getState());
-            currPriority = handler.getPriority();
-        }*/
+        FlagSet flagSet = FlagSet.intern(flags);
+        //flagState = handlers.evaluate(user, flagSet, ExtraContext.of(event));
         if (flagState == Tristate.FALSE) {
             if (user instanceof Player)
                 ((Player) user).sendMessage(ChatTypes.ACTION_BAR, Text.of("You don't have permission!"));
@@ -146,4 +134,40 @@ public class ExplosionListener implements EventListener<ExplosionEvent> {
             ((Cancellable) event).setCancelled(false);
         }
     }
+
+    /*private HandlerChain getHandlers(Explosion explosion, RegionCache.BlockBounds bounds, List<Vector3i> positions) {
+        World world = explosion.getWorld();
+        RegionCache regionCache = FGManager.getInstance().getRegionCache();
+        int tick = Sponge.getServer().getRunningTimeTicks();
+        if (tick != this.cacheTick || regionCache.getRegionEpoch() != this.cacheRegionEpoch
+                || regionCache.getHandlerEpoch() != this.cacheHandlerEpoch) {
+            this.tickAreas.clear();
+            this.cacheTick = tick;
+            this.cacheRegionEpoch = regionCache.getRegionEpoch();
+            this.cacheHandlerEpoch = regionCache.getHandlerEpoch();
+        }
+
+        List<Area> areas = this.tickAreas.computeIfAbsent(world.getUniqueId(), id -> new ArrayList<>());
+        for (Area area : areas) {
+            if (area.box.contains(bounds)) return area.handlers;
+        }
+        HandlerChain handlers = regionCache.getHandlers(world, bounds, positions);
+        if (areas.size() < MAX_TICK_AREAS
+                && bounds.minX >> 4 == bounds.maxX >> 4 && bounds.minZ >> 4 == bounds.maxZ >> 4) {
+            RegionCache.BlockBounds box = regionCache.getSafeBox(world, explosion.getLocation().getBlockPosition());
+            // every block in the box is in the same regions, so the handlers just resolved hold for all of it
+            if (box.contains(bounds)) areas.add(new Area(box, handlers));
+        }
+        return handlers;
+    }
+
+    private static final class Area {
+        private final RegionCache.BlockBounds box;
+        private final HandlerChain handlers;
+
+        private Area(RegionCache.BlockBounds box, HandlerChain handlers) {
+            this.box = box;
+            this.handlers = handlers;
+        }
+    }*/
 }
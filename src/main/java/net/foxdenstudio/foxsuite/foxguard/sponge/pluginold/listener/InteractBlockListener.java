@@ -60,14 +60,9 @@ public class InteractBlockListener implements EventListener<InteractBlockEvent>
         World world = location.get().getExtent();
         Vector3i pos = block.getPosition();
 
-        /*Set<IHandler> handlerSet = new HashSet<>();
-        FGManager.getInstance().getRegionsInChunkAtPos(world, pos).stream()
-                .filter(region -> region.contains(pos, world))
-                .forEach(region -> region.getHandlers().stream()
-                        .filter(IFGObject::isEnabled)
-                        .forEach(handlerSet::add));
+        /*HandlerChain handlers = FGManager.getInstance().getHandlers(world, pos);
 
-        if (handlerSet.isEmpty()) {
+        if (handlers.isEmpty()) {
             FoxGuardMain.instance().getLogger().warn("Handler set is empty for interact block listener!");
             return;
         }*/
@@ -92,20 +87,10 @@ public class InteractBlockListener implements EventListener<InteractBlockEvent>
             if (event instanceof InteractBlockEvent.Secondary.MainHand) flags[MAIN.id] = true;
             else if (event instanceof InteractBlockEvent.Secondary.OffHand) flags[OFF.id] = true;
         }
-        FlagSet flagSet = new FlagSet(flags);
+        FlagSet flagSet = FlagSet.intern(flags);
 
-        /*List<IHandler> handlerList = new ArrayList<>(handlerSet);
-        Collections.sort(handlerList);
-        int currPriority = handlerList.get(0).getPriority();*/
         Tristate flagState = UNDEFINED;
-        /*for (IHandler handler : handlerList) {
-            if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                break;
-            }
-            //flagState = flagState.and(handler.handle(user, typeFlag, Optional.of(event)).getState());
-            flagState = flagState.and(handler.handle(user, flagSet, ExtraContext.of(event)).getState());
-            currPriority = handler.getPriority();
-        }*/
+        //flagState = handlers.evaluate(user, flagSet, ExtraContext.of(event));
 //        if (flagState == UNDEFINED) flagState = TRUE;
         if (flagState == FALSE) {
             if (user instanceof Player)
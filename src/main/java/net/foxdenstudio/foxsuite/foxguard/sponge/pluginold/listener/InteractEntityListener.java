@@ -54,14 +54,9 @@ public class InteractEntityListener implements EventListener<InteractEntityEvent
         World world = event.getTargetEntity().getWorld();
         Vector3d pos = event.getTargetEntity().getLocation().getPosition();
 
-        /*Set<IHandler> handlerSet = new HashSet<>();
-        FGManager.getInstance().getRegionsInChunkAtPos(world, pos).stream()
-                .filter(region -> region.contains(pos, world))
-                .forEach(region -> region.getHandlers().stream()
-                        .filter(IFGObject::isEnabled)
-                        .forEach(handlerSet::add));
+        /*HandlerChain handlers = FGManager.getInstance().getHandlers(world, pos.toInt());
 
-        if (handlerSet.isEmpty()) {
+        if (handlers.isEmpty()) {
             FoxGuardMain.instance().getLogger().warn("Handler set is empty for interact block listener!");
             return;
         }*/
@@ -86,20 +81,10 @@ public class InteractEntityListener implements EventListener<InteractEntityEvent
             else if (event instanceof InteractEntityEvent.Secondary.OffHand) flags[OFF.id] = true;
         }
         ENTITY_FLAG_CALCULATOR.applyEntityFlags(ImmutableList.of(event.getTargetEntity()), flags);
-        FlagSet flagSet = new FlagSet(flags);
+        FlagSet flagSet = FlagSet.intern(flags);
 
-        /*List<IHandler> handlerList = new ArrayList<>(handlerSet);
-        Collections.sort(handlerList);
-        int currPriority = handlerList.get(0).getPriority();*/
         Tristate flagState = UNDEFINED;
-        /*for (IHandler handler : handlerList) {
-            if (handler.getPriority() < currPriority && flagState != UNDEFINED) {
-                break;
-            }
-            //flagState = flagState.and(handler.handle(user, typeFlag, Optional.of(event)).getState());
-            flagState = flagState.and(handler.handle(user, flagSet, ExtraContext.of(event)).getState());
-            currPriority = handler.getPriority();
-        }*/
+        //flagState = handlers.evaluate(user, flagSet, ExtraContext.of(event));
 //        if(flagState == UNDEFINED) flagState = TRUE;
         if (flagState == FALSE) {
             if (user instanceof Player)
@@ -27,11 +27,16 @@ package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.listener;
 
 import com.flowpowered.math.vector.Vector3d;
 import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag.FlagSet;
+import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util.HUDRenderer;
 import org.spongepowered.api.entity.Entity;
 import org.spongepowered.api.entity.Transform;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.event.EventListener;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
 import org.spongepowered.api.event.entity.MoveEntityEvent;
+import org.spongepowered.api.event.filter.Getter;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.chat.ChatTypes;
 import org.spongepowered.api.util.Tristate;
@@ -48,25 +53,36 @@ import static net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag.Flags.*;
  */
 public class PlayerMoveListener implements EventListener<MoveEntityEvent> {
 
-    private static final boolean[] BASE_FLAG_SET = FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE);
+    private static final FlagSet ENTER_FLAG_SET = FlagSet.intern(FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, ENTER));
+    private static final FlagSet EXIT_FLAG_SET = FlagSet.intern(FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, EXIT));
+    private static final FlagSet TELEPORT_ENTER_FLAG_SET = FlagSet.intern(FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, TELEPORT, ENTER));
+    private static final FlagSet TELEPORT_EXIT_FLAG_SET = FlagSet.intern(FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, TELEPORT, EXIT));
+    private static final FlagSet PORTAL_ENTER_FLAG_SET = FlagSet.intern(FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, TELEPORT, PORTAL, ENTER));
+    private static final FlagSet PORTAL_EXIT_FLAG_SET = FlagSet.intern(FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, TELEPORT, PORTAL, EXIT));
+
+    private static final long HUD_UPDATE_INTERVAL = 250;
+    private static final int HUD_MAX_LINES = 15;
+
+    private static final List<Player> NO_PLAYERS = Collections.emptyList();
+    private static final ThreadLocal<PassengerBuffer> PASSENGER_BUFFER = ThreadLocal.withInitial(PassengerBuffer::new);
 
     private static PlayerMoveListener instance;
 
     public final boolean full;
 
-    private final Map<Entity, Boolean> lastRiding = new WeakHashMap<>();
-    private final Map<Player, Vector3d> lastValidPosition = new WeakHashMap<>();
-
-    /*private final Map<Player, Scoreboard> scoreboardMap = new WeakCacheMap<>((k, m) -> {
-        if (k instanceof Player) {
-            Scoreboard s = Scoreboard.builder().build();
-            Objective o = Objective.builder().criterion(Criteria.DUMMY).name("foxguardhere").displayName(Text.EMPTY).build();
-            s.addObjective(o);
-            s.updateDisplaySlot(o, DisplaySlots.SIDEBAR);
-            m.put((Player) k, s);
-            return s;
-        } else return null;
-    });
+    // Players only, dropped when they leave.
+    private final Map<UUID, MoveState> states = new HashMap<>();
+    // Riding state of other entities, only while they carry passengers, since without any they cannot move a player.
+    private final Map<Entity, Boolean> vehicleRiding = new WeakHashMap<>();
+
+    private final HUDRenderer hud = new HUDRenderer(HUD_UPDATE_INTERVAL);
+    // Keyed by everything a line is rendered from, so enabling, disabling or renaming an object redraws it.
+    /*private final HUDRenderer.TextCache<IRegion> regionLines = new HUDRenderer.TextCache<>(
+            region -> region.isEnabled() + ":" + FGUtil.getRegionName(region, false),
+            region -> Text.of(FGUtil.getColorForObject(region), "  " + FGUtil.getRegionName(region, false)));
+    private final HUDRenderer.TextCache<IHandler> handlerLines = new HUDRenderer.TextCache<>(
+            handler -> handler.isEnabled() + ":" + handler.getShortTypeName() + " : " + handler.getName(),
+            handler -> Text.of(FGUtil.getColorForObject(handler), "  " + handler.getShortTypeName() + " : " + handler.getName()));
     private final Map<Player, HUDConfig> hudConfigMap = new WeakCacheMap<>((k, m) -> new HUDConfig());*/
 
     public PlayerMoveListener(boolean full) {
@@ -78,10 +94,20 @@ public class PlayerMoveListener implements EventListener<MoveEntityEvent> {
     public void handle(@Nonnull MoveEntityEvent event) {
         Entity entity = event.getTargetEntity();
         boolean isRiding = entity.getVehicle().isPresent();
-        boolean wasRiding = lastRiding.getOrDefault(entity, isRiding);
-        lastRiding.put(entity, isRiding);
+        boolean wasRiding = isRiding;
+        if (entity instanceof Player) {
+            MoveState state = this.states.get(entity.getUniqueId());
+            if (state == null) {
+                this.states.put(entity.getUniqueId(), new MoveState(isRiding));
+            } else {
+                wasRiding = state.riding;
+                state.riding = isRiding;
+            }
+        } else if (!entity.getPassengers().isEmpty()) {
+            Boolean last = this.vehicleRiding.put(entity, isRiding);
+            if (last != null) wasRiding = last;
+        }
 
-        Set<Player> passengerStack = getPassengerStack(event.getTargetEntity());
 //        if (!passengerStack.isEmpty()) {
 //            System.out.println("Entity: " + entity);
 //            System.out.println("Passengers: " + passengerStack);
@@ -106,62 +132,88 @@ public class PlayerMoveListener implements EventListener<MoveEntityEvent> {
 
         if (isRiding && wasRiding) return;
 
+        // Looking around and moving within a block cannot change which regions an entity is in.
+        Transform<World> from = event.getFromTransform();
+        Transform<World> to = event.getToTransform();
+        if (from.getExtent().equals(to.getExtent()) && sameBlock(from.getPosition(), to.getPosition())) return;
 
-        if (!passengerStack.isEmpty()) {
-
-//            FGManager manager = FGManager.getInstance();
-
-            Transform<World> from = event.getFromTransform();
-            Transform<World> to = event.getToTransform();
+        List<Player> passengerStack = getPassengerStack(event.getTargetEntity());
+        try {
+            handlePassengers(event, passengerStack);
+        } finally {
+            releasePassengerStack(passengerStack);
+        }
+    }
 
-            /*Set<IRegion> initialRegions, finalRegions = new HashSet<>();
-            Set<IHandler> finalHandlers;
+    private static boolean sameBlock(Vector3d a, Vector3d b) {
+        return a.getFloorX() == b.getFloorX() && a.getFloorY() == b.getFloorY() && a.getFloorZ() == b.getFloorZ();
+    }
 
-            initialRegions = manager.getRegionsAtPos(from.getExtent(), from.getPosition());*/
+    private void handlePassengers(MoveEntityEvent event, List<Player> passengerStack) {
+        if (passengerStack.isEmpty()) return;
 
-            boolean noToRegions = true;
-            int matchedRegionsCount = 0;
-            /*for (IRegion region : manager.getRegionsInChunkAtPos(to.getExtent(), to.getPosition())) {
-                if (region.contains(to.getPosition(), to.getExtent())) {
-                    finalRegions.add(region);
-                    if (noToRegions) {
-                        if (initialRegions.contains(region)) {
-                            ++matchedRegionsCount;
-                        } else {
-                            noToRegions = false;
-                        }
-                    }
-                }
-            }
+//        FGManager manager = FGManager.getInstance();
 
-            // Check change in regions
-            if (noToRegions && initialRegions.size() == matchedRegionsCount) return;
+        Transform<World> from = event.getFromTransform();
+        Transform<World> to = event.getToTransform();
 
-            finalHandlers = finalRegions.stream()
-                    .flatMap(region -> region.getHandlers().stream())
-                    .collect(Collectors.toSet());
+        /*RegionCache regionCache = manager.getRegionCache();
+        int regionEpoch = regionCache.getRegionEpoch();
+        int handlerEpoch = regionCache.getHandlerEpoch();
+        Vector3i fromBlock = from.getPosition().floor().toInt();
+        Vector3i toBlock = to.getPosition().floor().toInt();
 
+        // Moving within a box already known to lie inside a single set of regions cannot change anything either.
+        // Both ends are checked, since a player can be moved without an event this listener gets to see.
+        boolean safe = from.getExtent().equals(to.getExtent());
+        if (safe) {
             for (Player player : passengerStack) {
-                final boolean hud = player.getScoreboard() == scoreboardMap.get(player) && CommandHUD.instance().getIsHUDEnabled().get(player);
-                if (hud) {
-                    final HUDConfig config = this.hudConfigMap.get(player);
-                    renderHUD(player, finalRegions, finalHandlers, config);
-                    player.setScoreboard(this.scoreboardMap.get(player));
+                if (!getState(player).isSafe(to.getExtent(), fromBlock, toBlock, regionEpoch)) {
+                    safe = false;
+                    break;
                 }
-            }*/
-
-            if (full) {
-                /*Set<IHandler> fromHandlers, toHandlers = new HashSet<>();
+            }
+        }
+        if (safe) return;
+
+        // Only the destination is looked up. Where each player came from is already in their state.
+        Set<IRegion> finalRegions = manager.getRegionsAtPos(to.getExtent(), to.getPosition());
+        Set<IHandler> finalHandlers = finalRegions.stream()
+                .flatMap(region -> region.getHandlers().stream())
+                .collect(Collectors.toSet());
+
+        for (Player player : passengerStack) {
+            final boolean hud = player.getScoreboard() == this.hud.getScoreboard(player) && CommandHUD.instance().getIsHUDEnabled().get(player);
+            if (hud && !finalRegions.equals(getState(player).regions)) {
+                renderHUD(player, finalRegions, finalHandlers, this.hudConfigMap.get(player));
+            }
+        }*/
+
+        Player offendingPlayer = null;
+        if (full) {
+            FlagSet exitFlagSet, enterFlagSet;
+            if (event instanceof MoveEntityEvent.Teleport.Portal) {
+                exitFlagSet = PORTAL_EXIT_FLAG_SET;
+                enterFlagSet = PORTAL_ENTER_FLAG_SET;
+            } else if (event instanceof MoveEntityEvent.Teleport) {
+                exitFlagSet = TELEPORT_EXIT_FLAG_SET;
+                enterFlagSet = TELEPORT_ENTER_FLAG_SET;
+            } else {
+                exitFlagSet = EXIT_FLAG_SET;
+                enterFlagSet = ENTER_FLAG_SET;
+            }
 
-                fromHandlers = initialRegions.stream()
-                        .flatMap(region -> region.getHandlers().stream())
-                        .collect(Collectors.toSet());
+            //ExtraContext extra = ExtraContext.of(event);
+            for (Player player : passengerStack) {
+                Tristate flagState = Tristate.UNDEFINED;
+                /*MoveState state = getState(player);
+                Set<IHandler> fromHandlers = new HashSet<>(state.getHandlers(manager, from, fromBlock, regionEpoch, handlerEpoch)), toHandlers = new HashSet<>();
                 finalHandlers.forEach(handler -> {
                     if (!fromHandlers.remove(handler)) toHandlers.add(handler);
                 });
 
                 // check change in handlers
-                if (fromHandlers.isEmpty() && toHandlers.isEmpty()) return;
+                if (fromHandlers.isEmpty() && toHandlers.isEmpty()) continue;
 
                 List<HandlerWrapper> handlersList = new ArrayList<>();
 
@@ -174,68 +226,59 @@ public class PlayerMoveListener implements EventListener<MoveEntityEvent> {
                     if (handler.isEnabled())
                         handlersList.add(new HandlerWrapper(handler, Type.TO));
                 }
+                if (handlersList.isEmpty()) continue;
 
                 Collections.sort(handlersList);
 
-                int currPriority = handlersList.get(0).handler.getPriority();*/
-                Tristate flagState = Tristate.UNDEFINED;
-
-                boolean[] exitFlags = BASE_FLAG_SET.clone();
-                if (event instanceof MoveEntityEvent.Teleport) {
-                    exitFlags[TELEPORT.id] = true;
-                    if (event instanceof MoveEntityEvent.Teleport.Portal) {
-                        exitFlags[PORTAL.id] = true;
-                    }
-                }
-                boolean[] enterFlags = exitFlags.clone();
-                exitFlags[EXIT.id] = true;
-                enterFlags[ENTER.id] = true;
-
-                FlagSet exitFlagSet = new FlagSet(exitFlags);
-                FlagSet enterFlagSet = new FlagSet(enterFlags);
-
-                Player offendingPlayer = null;
-                for (Player player : passengerStack) {
-                    /*for (HandlerWrapper wrap : handlersList) {
-                        if (wrap.handler.getPriority() < currPriority && flagState != Tristate.UNDEFINED) {
-                            break;
-                        }
-                        EventResult result;
-                        if (wrap.type == Type.FROM) {
-                            result = wrap.handler.handle(player, exitFlagSet, ExtraContext.of(event));
-                        } else
-                            result = wrap.handler.handle(player, enterFlagSet, ExtraContext.of(event));
-                        flagState = flagState.and(result.getState());
-                        currPriority = wrap.handler.getPriority();
-                    }*/
-                    if (flagState == Tristate.FALSE) {
-                        offendingPlayer = player;
+                int currPriority = handlersList.get(0).handler.getPriority();
+                for (HandlerWrapper wrap : handlersList) {
+                    if (wrap.handler.getPriority() < currPriority && flagState != Tristate.UNDEFINED) {
                         break;
                     }
+                    EventResult result;
+                    if (wrap.type == Type.FROM) {
+                        result = wrap.handler.handle(player, exitFlagSet, extra);
+                    } else
+                        result = wrap.handler.handle(player, enterFlagSet, extra);
+                    flagState = flagState.and(result.getState());
+                    currPriority = wrap.handler.getPriority();
+                }*/
+                if (flagState == Tristate.FALSE) {
+                    offendingPlayer = player;
+                    break;
                 }
+            }
 
-                if (flagState == Tristate.FALSE) {
-                    for (Player player : passengerStack) {
-                        if (player == offendingPlayer) {
-                            player.sendMessage(ChatTypes.ACTION_BAR, Text.of("You don't have permission to pass!"));
-                        } else {
-                            player.sendMessage(ChatTypes.ACTION_BAR, Text.of("Someone else doesn't have permission to pass!"));
-                        }
+            if (offendingPlayer != null) {
+                for (Player player : passengerStack) {
+                    if (player == offendingPlayer) {
+                        player.sendMessage(ChatTypes.ACTION_BAR, Text.of("You don't have permission to pass!"));
+                    } else {
+                        player.sendMessage(ChatTypes.ACTION_BAR, Text.of("Someone else doesn't have permission to pass!"));
                     }
-                    event.setCancelled(true);
-//                    Vector3d position = this.last.get(player).position;
-//                    if (position == null) position = event.getFromTransform().getPosition();
-//                    event.setToTransform(event.getToTransform().setPosition(position));
-                } else {
-//                    this.last.put(player, new PlayerMoveListener.LastWrapper(toComplete, event.getToTransform().getPosition()));
-
-                    // makes sure that handlers are unable to cancel the event directly.
-                    event.setCancelled(false);
                 }
+                event.setCancelled(true);
+            } else {
+                // makes sure that handlers are unable to cancel the event directly.
+                event.setCancelled(false);
             }
         }
 
-        lastRiding.put(entity, isRiding);
+        /*if (offendingPlayer == null) {
+            RegionCache.BlockBounds safeBox = regionCache.getSafeBox(to.getExtent(), toBlock);
+            for (Player player : passengerStack) {
+                getState(player).update(to.getExtent(), finalRegions, finalHandlers, safeBox, regionEpoch, handlerEpoch);
+            }
+        }*/
+    }
+
+    private MoveState getState(Player player) {
+        MoveState state = this.states.get(player.getUniqueId());
+        if (state == null) {
+            state = new MoveState(player.getVehicle().isPresent());
+            this.states.put(player.getUniqueId(), state);
+        }
+        return state;
     }
 
     private enum Type {
@@ -265,97 +308,172 @@ public class PlayerMoveListener implements EventListener<MoveEntityEvent> {
 
     /*@SuppressWarnings("Duplicates")
     public void renderHUD(Player player, Collection<IRegion> regions, Collection<IHandler> handlers, HUDConfig config) {
-        this.scoreboardMap.remove(player);
-        Scoreboard scoreboard = this.scoreboardMap.get(player);
-        Objective objective = scoreboard.getObjective("foxguardhere").get();
+        Text title;
+        List<Text> lines = new ArrayList<>();
         if (config.regions) {
             List<IRegion> regionList = new ArrayList<>(regions);
-            Collections.sort(regionList, (o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
+            regionList.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
             if (config.handlers) {
                 List<IHandler> handlerList = new ArrayList<>(handlers);
                 if (config.priority) {
                     // TODO redo sorting post owners
-                    Collections.sort(handlerList, (o1, o2) -> o2.getPriority() - o1.getPriority());
+                    handlerList.sort((o1, o2) -> o2.getPriority() - o1.getPriority());
                 } else {
-                    Collections.sort(handlerList, (o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
+                    handlerList.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
                 }
-                objective.setDisplayName(Text.of(TextColors.GOLD, "  Regions and Handlers Here  "));
+                title = Text.of(TextColors.GOLD, "  Regions and Handlers Here  ");
                 final int total = regionList.size() + handlerList.size();
                 final int regionCount = (int) Math.round(13.0 * regionList.size() / total);
                 final int handlerCount = (int) Math.round(13.0 * handlerList.size() / total);
-                int slot = Math.min(15, total + 2);
-                Score regionsScore = objective.getOrCreateScore(Text.of(TextColors.GREEN, "Regions (" + player.getWorld().getName() + ") ",
+                lines.add(Text.of(TextColors.GREEN, "Regions (" + player.getWorld().getName() + ") ",
                         TextColors.YELLOW, "(" + regionList.size() + ")"));
-                regionsScore.setScore(slot--);
                 for (int i = 0; i < regionCount && i < regionList.size(); i++) {
-                    IRegion region = regionList.get(i);
                     // TODO redo naming post owners. Actually this whole thing will need some tweaking.
-                    Score score = objective.getOrCreateScore(Text.of(FGUtil.getColorForObject(region),
-                            "  " + FGUtil.getRegionName(region, false)));
-                    score.setScore(slot--);
+                    lines.add(this.regionLines.get(regionList.get(i)));
                 }
-                Score handlersScore = objective.getOrCreateScore(Text.of(TextColors.GREEN, "Handlers " + (config.priority ? "by Priority " : ""),
+                lines.add(Text.of(TextColors.GREEN, "Handlers " + (config.priority ? "by Priority " : ""),
                         TextColors.YELLOW, "(" + handlerList.size() + ")"));
-                handlersScore.setScore(slot--);
                 for (int i = 0; i < handlerCount && i < handlerList.size(); i++) {
-                    IHandler handler = handlerList.get(i);
-                    Score score = objective.getOrCreateScore(Text.of(FGUtil.getColorForObject(handler),
-                            "  " + handler.getShortTypeName() + " : " + handler.getName()));
-                    score.setScore(slot--);
+                    lines.add(this.handlerLines.get(handlerList.get(i)));
                 }
-
             } else {
-                int slot = regionList.size();
-                objective.setDisplayName(Text.of(TextColors.GOLD, "  Regions Here (" + player.getWorld().getName() + ")  "));
+                title = Text.of(TextColors.GOLD, "  Regions Here (" + player.getWorld().getName() + ")  ");
                 for (IRegion region : regionList) {
-                    Score score = objective.getOrCreateScore(Text.of(FGUtil.getColorForObject(region),
-                            "  " + FGUtil.getRegionName(region, false)));
-                    score.setScore(slot--);
-                    if (slot <= 0) break;
+                    if (lines.size() >= HUD_MAX_LINES) break;
+                    lines.add(this.regionLines.get(region));
                 }
             }
         } else if (config.handlers) {
+            List<IHandler> handlerList = new ArrayList<>(handlers);
             if (config.priority) {
-                objective.setDisplayName(Text.of(TextColors.GOLD, "  Handlers Here by Priority  "));
-                for (IHandler handler : handlers) {
-                    Score score = objective.getOrCreateScore(Text.of(FGUtil.getColorForObject(handler),
-                            "  " + handler.getShortTypeName() + " : " + handler.getName()));
-                    score.setScore(handler.getPriority());
-                }
+                title = Text.of(TextColors.GOLD, "  Handlers Here by Priority  ");
+                handlerList.sort((o1, o2) -> o2.getPriority() - o1.getPriority());
             } else {
-                List<IHandler> handlerList = new ArrayList<>(handlers);
-                int slot = handlerList.size();
-                objective.setDisplayName(Text.of(TextColors.GOLD, "  Handlers Here  "));
-                Collections.sort(handlerList, (o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
-                for (IHandler handler : handlerList) {
-                    Score score = objective.getOrCreateScore(Text.of(FGUtil.getColorForObject(handler),
-                            "  " + handler.getShortTypeName() + " : " + handler.getName()));
-                    score.setScore(slot--);
-                    if (slot <= 0) break;
-                }
+                title = Text.of(TextColors.GOLD, "  Handlers Here  ");
+                handlerList.sort((o1, o2) -> o1.getName().compareToIgnoreCase(o2.getName()));
             }
-        }
+            for (IHandler handler : handlerList) {
+                if (lines.size() >= HUD_MAX_LINES) break;
+                lines.add(this.handlerLines.get(handler));
+            }
+        } else return;
+        this.hud.render(player, title, lines);
     }*/
 
     /*public Map<Player, HUDConfig> getHudConfigMap() {
         return hudConfigMap;
     }*/
-    /*public void showScoreboard(Player player) {
-        player.setScoreboard(this.scoreboardMap.get(player));
-    }*/
+    public void showScoreboard(Player player) {
+        player.setScoreboard(this.hud.getScoreboard(player));
+    }
 
     public static PlayerMoveListener getInstance() {
         return instance;
     }
 
-    private static Set<Player> getPassengerStack(Entity e) {
-        Set<Player> set = new HashSet<>();
-        if (e instanceof Player) set.add((Player) e);
-        List<Entity> po = e.getPassengers();
-        for (Entity ent : po) {
-            set.addAll(getPassengerStack(ent));
+    /**
+     * Collects the players in the passenger tree rooted at the given entity, including the entity itself.
+     * Entities without passengers, which is nearly all of them, allocate nothing: a lone player goes into a per-thread
+     * buffer like any larger tree, and must be handed back with {@link #releasePassengerStack(List)} the same way.
+     */
+    static List<Player> getPassengerStack(Entity e) {
+        List<Entity> passengers = e.getPassengers();
+        if (passengers.isEmpty() && !(e instanceof Player)) return NO_PLAYERS;
+
+        PassengerBuffer buffer = PASSENGER_BUFFER.get();
+        List<Player> players;
+        Deque<Entity> pending;
+        if (buffer.inUse) {
+            // a handler moved something from inside another move event
+            players = new ArrayList<>();
+            pending = new ArrayDeque<>();
+        } else {
+            buffer.inUse = true;
+            players = buffer.players;
+            pending = buffer.pending;
+        }
+        if (e instanceof Player) players.add((Player) e);
+        if (passengers.isEmpty()) return players;
+        pending.addAll(passengers);
+        Entity next;
+        while ((next = pending.poll()) != null) {
+            if (next instanceof Player) players.add((Player) next);
+            pending.addAll(next.getPassengers());
+        }
+        return players;
+    }
+
+    static void releasePassengerStack(List<Player> players) {
+        PassengerBuffer buffer = PASSENGER_BUFFER.get();
+        if (players == buffer.players) {
+            buffer.players.clear();
+            buffer.inUse = false;
         }
-        return set;
+    }
+
+    /**
+     * What the listener knows about a player between move events.
+     * The region and handler sets are those at the last position the player was allowed to reach,
+     * so entering and leaving is a diff against them instead of another lookup at the old position.
+     * They are only trusted while the player is still inside the safe box around that position, since respawns,
+     * and moves that another plugin cancels after this listener, move a player without this listener seeing it.
+     */
+    private static final class MoveState {
+        private boolean riding;
+        /*private World world;
+        private Set<IRegion> regions;
+        private Set<IHandler> handlers;
+        private RegionCache.BlockBounds safeBox;
+        private int regionEpoch;
+        private int handlerEpoch;*/
+
+        private MoveState(boolean riding) {
+            this.riding = riding;
+        }
+
+        /*private boolean isSafe(World world, Vector3i fromBlock, Vector3i toBlock, int regionEpoch) {
+            return this.safeBox != null && this.regionEpoch == regionEpoch && world.equals(this.world)
+                    && this.safeBox.contains(fromBlock) && this.safeBox.contains(toBlock);
+        }
+
+        /**
+         * The handlers at the player's last accepted position. They are worked out again from where the player came from
+         * if regions or handler links changed since, or an unlinked handler would be exited and a linked one never entered,
+         * and likewise if the player is no longer where they were last accepted.
+         */
+        private Set<IHandler> getHandlers(FGManager manager, Transform<World> from, Vector3i fromBlock,
+                                          int regionEpoch, int handlerEpoch) {
+            if (this.handlers != null && from.getExtent().equals(this.world)
+                    && this.regionEpoch == regionEpoch && this.handlerEpoch == handlerEpoch
+                    && this.safeBox.contains(fromBlock)) return this.handlers;
+            return manager.getRegionsAtPos(from.getExtent(), from.getPosition()).stream()
+                    .flatMap(region -> region.getHandlers().stream())
+                    .collect(Collectors.toSet());
+        }
+
+        private void update(World world, Set<IRegion> regions, Set<IHandler> handlers, RegionCache.BlockBounds safeBox,
+                            int regionEpoch, int handlerEpoch) {
+            this.world = world;
+            this.regions = regions;
+            this.handlers = handlers;
+            this.safeBox = safeBox;
+            this.regionEpoch = regionEpoch;
+            this.handlerEpoch = handlerEpoch;
+        }*/
+    }
+
+    public class Listeners {
+        @Listener(order = Order.POST)
+        public void onDisconnect(ClientConnectionEvent.Disconnect event, @Getter("getTargetEntity") Player player) {
+            states.remove(player.getUniqueId());
+            hud.remove(player.getUniqueId());
+        }
+    }
+
+    private static final class PassengerBuffer {
+        private final List<Player> players = new ArrayList<>();
+        private final Deque<Entity> pending = new ArrayDeque<>();
+        private boolean inUse = false;
     }
 
     public static class HUDConfig {
@@ -44,9 +44,9 @@ import static net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag.Flags.*;
 public class PlayerMoveListenerOld implements EventListener<MoveEntityEvent> {
 
     private static final boolean[] ENTER_FLAGS = FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, ENTER);
-    private static final FlagSet ENTER_FLAG_SET = new FlagSet(ENTER_FLAGS);
+    private static final FlagSet ENTER_FLAG_SET = FlagSet.intern(ENTER_FLAGS);
     private static final boolean[] EXIT_FLAGS = FlagSet.arrayFromFlags(ROOT, DEBUFF, MOVE, EXIT);
-    private static final FlagSet EXIT_FLAG_SET = new FlagSet(EXIT_FLAGS);
+    private static final FlagSet EXIT_FLAG_SET = FlagSet.intern(EXIT_FLAGS);
 
     //private static final LastWrapper EMPTY_LAST_WRAPPER = new LastWrapper(null, null);
 
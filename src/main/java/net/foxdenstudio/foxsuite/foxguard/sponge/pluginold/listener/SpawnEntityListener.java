@@ -73,21 +73,16 @@ public class SpawnEntityListener implements EventListener<SpawnEntityEvent> {
 
         }*/
 
-        /*Set<IHandler> handlerSet = new HashSet<>();
-
-        for (Entity entity : entities) {
-            Location<World> loc = entity.getLocation();
-            Vector3d pos = loc.getPosition();
-            World world = loc.getExtent();
-            FGManager.getInstance().getRegionsInChunkAtPos(world, pos).stream()
-                    .filter(region -> region.contains(pos, world))
-                    .forEach(region -> region.getHandlers().stream()
-                            .filter(IFGObject::isEnabled)
-                            .forEach(handlerSet::add));
-        }*/
+        /*Map<World, List<Vector3i>> positions = entities.stream()
+                .map(Entity::getLocation)
+                .collect(Collectors.groupingBy(Location::getExtent,
+                        Collectors.mapping(Location::getBlockPosition, Collectors.toList())));
+        HandlerChain handlers = positions.size() == 1
+                ? FGManager.getInstance().getHandlers(positions.keySet().iterator().next(), positions.values().iterator().next())
+                : FGManager.getInstance().getHandlers(positions);*/
 
         //TODO maybe throw a warning
-        //if(handlerSet.size() == 0) return;
+        //if(handlers.isEmpty()) return;
 
         User user;
         if (event.getCause().containsType(Player.class)) {
@@ -102,19 +97,10 @@ public class SpawnEntityListener implements EventListener<SpawnEntityEvent> {
 
         ENTITY_FLAG_CALCULATOR.applyEntityFlags(entities, flags);
 
-        FlagSet flagSet = new FlagSet(flags);
+        FlagSet flagSet = FlagSet.intern(flags);
 
-        /*ArrayList<IHandler> handlerList = new ArrayList<>(handlerSet);
-        Collections.sort(handlerList);
-        int currPriority = handlerList.get(0).getPriority();*/
         Tristate flagState = Tristate.UNDEFINED;
-        /*for (IHandler handler : handlerList) {
-            if (handler.getPriority() < currPriority && flagState != Tristate.UNDEFINED) {
-                break;
-            }
-            flagState = flagState.and(handler.handle(user, flagSet, ExtraContext.of(event)).getState());
-            currPriority = handler.getPriority();
-        }*/
+        //flagState = handlers.evaluate(user, flagSet, ExtraContext.of(event));
         if (flagState == Tristate.FALSE) {
             if (user instanceof Player)
                 ((Player) user).sendMessage(ChatTypes.ACTION_BAR, Text.of("You don't have permission!"));
@@ -27,8 +27,20 @@ package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.listener.util;
 
 import org.spongepowered.api.util.Tristate;
 
+/**
+ * Immutable, so every combination of state and message flag is shared rather than allocated per handler call.
+ */
 public final class EventResult {
 
+    private static final EventResult[] INSTANCES = new EventResult[Tristate.values().length * 2];
+
+    static {
+        for (Tristate state : Tristate.values()) {
+            INSTANCES[index(state, true)] = new EventResult(state, true);
+            INSTANCES[index(state, false)] = new EventResult(state, false);
+        }
+    }
+
     private static final EventResult SUCCESS = of(Tristate.TRUE);
     private static final EventResult PASSTHROUGH = of(Tristate.UNDEFINED);
     private static final EventResult FAILURE = of(Tristate.FALSE);
@@ -42,11 +54,16 @@ public final class EventResult {
     }
 
     public static EventResult of(Tristate state) {
-        return new EventResult(state, true);
+        return of(state, true);
     }
 
     public static EventResult of(Tristate success, boolean displayDefaultMessage) {
-        return new EventResult(success, displayDefaultMessage);
+        if (success == null) return new EventResult(null, displayDefaultMessage);
+        return INSTANCES[index(success, displayDefaultMessage)];
+    }
+
+    private static int index(Tristate state, boolean displayDefaultMessage) {
+        return state.ordinal() * 2 + (displayDefaultMessage ? 1 : 0);
     }
 
     public static EventResult allow() {
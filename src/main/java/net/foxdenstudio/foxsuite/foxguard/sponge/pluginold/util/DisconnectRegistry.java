@@ -0,0 +1,83 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util;
+
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.filter.Getter;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+/**
+ * Tells objects that keep per-user state when a player logs out,
+ * so their caches follow the online player count rather than every player ever seen.
+ * <p>
+ * Subscribers are held weakly, since handlers are deleted without notice to this registry.
+ */
+public final class DisconnectRegistry {
+
+    private static final DisconnectRegistry instance = new DisconnectRegistry();
+
+    private final Set<Subscriber> subscribers = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private DisconnectRegistry() {
+    }
+
+    public static DisconnectRegistry getInstance() {
+        return instance;
+    }
+
+    public synchronized void subscribe(Subscriber subscriber) {
+        this.subscribers.add(subscriber);
+    }
+
+    public synchronized void unsubscribe(Subscriber subscriber) {
+        this.subscribers.remove(subscriber);
+    }
+
+    @Listener(order = Order.POST)
+    public void onDisconnect(ClientConnectionEvent.Disconnect event, @Getter("getTargetEntity") Player player) {
+        List<Subscriber> subscribers;
+        synchronized (this) {
+            subscribers = new ArrayList<>(this.subscribers);
+        }
+        UUID user = player.getUniqueId();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onDisconnect(user);
+        }
+    }
+
+    public interface Subscriber {
+        void onDisconnect(UUID user);
+    }
+}
@@ -32,10 +32,13 @@ import java.util.Optional;
 
 /**
  * Created by Fox on 5/20/2016.
+ * <p>
+ * Listeners build one context per event and hand the same instance to every handler they consult,
+ * so it must be treated as read only.
  */
 public class ExtraContext {
 
-    private Object[] objects;
+    private final Object[] objects;
     private List<Object> objectList;
 
     private ExtraContext(Object[] objects) {
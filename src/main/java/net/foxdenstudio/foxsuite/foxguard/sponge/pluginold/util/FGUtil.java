@@ -102,6 +102,7 @@ public final class FGUtil {
     }
 
     public static void markHandlerDirty(IHandler handler) {
+        FGManager.getInstance().markHandlersDirty();
         FGStorageManager.getInstance().defaultModifiedMap.put(handler, true);
         Sponge.getGame().getEventManager().post(FGEventFactory.createFGUpdateObjectEvent(FoxGuardMain.getCause(), handler));
     }*/
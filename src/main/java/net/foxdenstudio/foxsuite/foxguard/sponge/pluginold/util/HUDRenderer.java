@@ -0,0 +1,184 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util;
+
+import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.FoxGuardMain;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.scheduler.Task;
+import org.spongepowered.api.scoreboard.Scoreboard;
+import org.spongepowered.api.scoreboard.critieria.Criteria;
+import org.spongepowered.api.scoreboard.displayslot.DisplaySlots;
+import org.spongepowered.api.scoreboard.objective.Objective;
+import org.spongepowered.api.text.Text;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Keeps one sidebar per player and updates it in place.
+ * Each render is diffed against what the player was last sent, so only lines that appeared, disappeared or moved
+ * produce score packets. Renders closer together than the minimum interval are coalesced,
+ * and the latest one is sent once the interval has passed.
+ * <p>
+ * Meant to be used from the main thread only.
+ */
+public final class HUDRenderer {
+
+    public static final String OBJECTIVE_NAME = "foxguardhere";
+
+    private final long minIntervalMillis;
+    private final Map<UUID, View> views = new HashMap<>();
+
+    public HUDRenderer(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    public Scoreboard getScoreboard(Player player) {
+        return getView(player).scoreboard;
+    }
+
+    /**
+     * Shows the given lines top to bottom under the given title.
+     * Lines should be distinct, since the scoreboard keys scores by their text.
+     */
+    public void render(Player player, Text title, List<Text> lines) {
+        View view = getView(player);
+        view.pendingTitle = title;
+        view.pendingLines = lines;
+        if (view.scheduled) return;
+        long wait = view.lastRender + this.minIntervalMillis - System.currentTimeMillis();
+        if (wait > 0) {
+            view.scheduled = true;
+            Task.builder()
+                    .execute(() -> flush(view))
+                    .delay(wait, TimeUnit.MILLISECONDS)
+                    .submit(FoxGuardMain.instance());
+        } else {
+            flush(view);
+        }
+    }
+
+    public void remove(UUID player) {
+        View view = this.views.remove(player);
+        if (view != null) view.pendingLines = null;
+    }
+
+    private View getView(Player player) {
+        View view = this.views.get(player.getUniqueId());
+        if (view == null) {
+            view = new View();
+            this.views.put(player.getUniqueId(), view);
+        }
+        return view;
+    }
+
+    private void flush(View view) {
+        view.scheduled = false;
+        List<Text> lines = view.pendingLines;
+        if (lines == null) return;
+        view.pendingLines = null;
+        view.lastRender = System.currentTimeMillis();
+
+        if (!view.title.equals(view.pendingTitle)) {
+            view.title = view.pendingTitle;
+            view.objective.setDisplayName(view.title);
+        }
+
+        Map<Text, Integer> shown = view.shown;
+        Set<Text> keep = new HashSet<>(lines);
+        Iterator<Map.Entry<Text, Integer>> iterator = shown.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Text line = iterator.next().getKey();
+            if (!keep.contains(line)) {
+                view.objective.removeScore(line);
+                iterator.remove();
+            }
+        }
+        int slot = lines.size();
+        for (Text line : lines) {
+            Integer previous = shown.put(line, slot);
+            if (previous == null || previous != slot) {
+                view.objective.getOrCreateScore(line).setScore(slot);
+            }
+            slot--;
+        }
+    }
+
+    private static final class View {
+        private final Scoreboard scoreboard;
+        private final Objective objective;
+        private final Map<Text, Integer> shown = new HashMap<>();
+        private Text title = Text.EMPTY;
+        private Text pendingTitle;
+        private List<Text> pendingLines;
+        private long lastRender;
+        private boolean scheduled;
+
+        private View() {
+            this.objective = Objective.builder().criterion(Criteria.DUMMY).name(OBJECTIVE_NAME).displayName(Text.EMPTY).build();
+            this.scoreboard = Scoreboard.builder().objectives(Collections.singletonList(this.objective)).build();
+            this.scoreboard.updateDisplaySlot(this.objective, DisplaySlots.SIDEBAR);
+        }
+    }
+
+    /**
+     * Remembers the rendered line for each object until its key changes,
+     * so an unchanged region or handler is not formatted again on every render.
+     * The key must cover everything the line is rendered from, such as the name and enabled state behind its colour.
+     */
+    public static final class TextCache<T> {
+
+        private final Map<T, Entry> entries = new WeakHashMap<>();
+        private final Function<? super T, String> keyFunction;
+        private final Function<? super T, Text> renderFunction;
+
+        public TextCache(Function<? super T, String> keyFunction, Function<? super T, Text> renderFunction) {
+            this.keyFunction = keyFunction;
+            this.renderFunction = renderFunction;
+        }
+
+        public Text get(T object) {
+            String key = this.keyFunction.apply(object);
+            Entry entry = this.entries.get(object);
+            if (entry == null || !entry.key.equals(key)) {
+                entry = new Entry(key, this.renderFunction.apply(object));
+                this.entries.put(object, entry);
+            }
+            return entry.text;
+        }
+
+        private static final class Entry {
+            private final String key;
+            private final Text text;
+
+            private Entry(String key, Text text) {
+                this.key = key;
+                this.text = text;
+            }
+        }
+    }
+}
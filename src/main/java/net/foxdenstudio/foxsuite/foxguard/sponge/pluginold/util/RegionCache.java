@@ -36,23 +36,41 @@ import java.util.Map;
 
 public class RegionCache {
 
-    /*private final Map<World, Set<IWorldRegion>> worldRegions;
+    /*private static final Combination EMPTY_COMBINATION = new Combination(ImmutableSet.of(), HandlerChain.EMPTY);
+
+    private final Map<World, Set<IWorldRegion>> worldRegions;
     private final Set<IRegion> regions;
 
-    private final Map<World, Map<Vector3i, ChunkData>> chunks;
+    private final Map<World, ChunkMap<ChunkData>> chunks;
+
+    // Reverse index of which cached chunks each region was last seen in or has a pending mark in.
+    // Lets an edit touch only the chunks the region used to overlap, plus the ones inside its new bounds.
+    // Pending marks must be indexed too, or a removal would miss a chunk that has not applied an earlier add yet.
+    private final Map<IRegion, Set<ChunkData>> regionChunks;
+
+    // Bumped whenever a handler or link changes. Chunks compare against it lazily instead of being walked.
+    private int handlerEpoch = 0;
+
+    // Bumped whenever any region is added, changed or removed, so safe boxes handed out earlier can be checked cheaply.
+    private int regionEpoch = 0;
+
+    // Interned handler arrays, keyed by the exact set of regions at a point.
+    // Most positions fall into a handful of distinct region sets, so chunks share these instead of building their own.
+    private final Map<Set<IRegion>, Combination> combinations = new HashMap<>();
 
     public RegionCache(Set<IRegion> regions, Map<World, Set<IWorldRegion>> worldRegions) {
         this.worldRegions = worldRegions;
         this.regions = regions;
+        this.regionChunks = new CacheMap<>((region, indexMap) -> {
+            if (region instanceof IRegion) {
+                Set<ChunkData> set = new HashSet<>();
+                indexMap.put((IRegion) region, set);
+                return set;
+            } else return null;
+        });
         chunks = new CacheMap<>((world, worldDataMap) -> {
             if (world instanceof World) {
-                Map<Vector3i, ChunkData> worldData = new CacheMap<>((chunk, chunkDataMap) -> {
-                    if (chunk instanceof Vector3i) {
-                        ChunkData data = new ChunkData((World) world, (Vector3i) chunk);
-                        chunkDataMap.put((Vector3i) chunk, data);
-                        return data;
-                    } else return null;
-                });
+                ChunkMap<ChunkData> worldData = new ChunkMap<>();
                 worldDataMap.put((World) world, worldData);
                 return worldData;
             } else return null;
@@ -60,41 +78,227 @@ public class RegionCache {
     }
 
     public void markDirty(IRegion region, DirtyType type) {
+        this.regionEpoch++;
+        Set<ChunkData> indexed = this.regionChunks.get(region);
+        for (ChunkData data : indexed) {
+            data.markDirty(region, type);
+        }
+        if (type == DirtyType.REMOVED) {
+            this.regionChunks.remove(region);
+            this.combinations.keySet().removeIf(set -> set.contains(region));
+            return;
+        }
         if (region instanceof IWorldRegion) {
-            for (ChunkData data : chunks.get(((IWorldRegion) region).getWorld()).values()) {
-                data.markDirty(region, type);
+            markDirtyInBounds(region, type, ((IWorldRegion) region).getWorld(), indexed);
+        } else {
+            for (World world : chunks.keySet()) {
+                markDirtyInBounds(region, type, world, indexed);
+            }
+        }
+    }
+
+    private void markDirtyInBounds(IRegion region, DirtyType type, World world, Set<ChunkData> indexed) {
+        ChunkMap<ChunkData> worldData = chunks.get(world);
+        ChunkBounds bounds = region.getChunkBounds(world);
+        if (bounds.isEmpty()) return;
+        if (bounds.area() < worldData.size()) {
+            for (int x = bounds.minX; x <= bounds.maxX; x++) {
+                for (int z = bounds.minZ; z <= bounds.maxZ; z++) {
+                    ChunkData data = worldData.get(x, z);
+                    if (data != null && indexed.add(data)) data.markDirty(region, type);
+                }
             }
         } else {
-            for (Map<Vector3i, ChunkData> worldData : chunks.values()) {
-                for (ChunkData data : worldData.values()) {
-                    data.markDirty(region, type);
+            worldData.forEachValue(data -> {
+                if (bounds.contains(data.chunkX, data.chunkZ) && indexed.add(data)) data.markDirty(region, type);
+            });
+        }
+    }
+
+    public void markHandlersDirty() {
+        this.handlerEpoch++;
+        this.combinations.clear();
+    }
+
+    public HandlerChain getHandlers(World world, Vector3i pos) {
+        return getDataAtBlock(world, pos.getX(), pos.getZ()).getCombination(pos).chain;
+    }
+
+    public HandlerChain getHandlers(World world, Iterable<Vector3i> positions) {
+        Set<IRegion> union = new HashSet<>();
+        collectRegions(world, positions, union);
+        return intern(union).chain;
+    }
+
+    /**
+     * Resolves handlers for positions spread over several worlds, each tested against its own world's regions.
+     */
+    public HandlerChain getHandlers(Map<World, ? extends Iterable<Vector3i>> positions) {
+        Set<IRegion> union = new HashSet<>();
+        positions.forEach((world, worldPositions) -> collectRegions(world, worldPositions, union));
+        return intern(union).chain;
+    }
+
+    private void collectRegions(World world, Iterable<Vector3i> positions, Set<IRegion> union) {
+        // Group positions by chunk, so each chunk is brought up to date once and only tests the regions
+        // that no earlier position in it has hit yet. Large block events touch many positions but few chunks.
+        ChunkMap<ChunkHits> hits = new ChunkMap<>();
+        for (Vector3i pos : positions) {
+            long key = ChunkMap.keyAtBlock(pos.getX(), pos.getZ());
+            ChunkHits hit = hits.get(key);
+            if (hit == null) {
+                ChunkData data = getData(world, ChunkMap.keyX(key), ChunkMap.keyZ(key));
+                data.snapshot();
+                hit = new ChunkHits(data);
+                hits.put(key, hit);
+            }
+            hit.add(pos);
+        }
+        hits.forEachValue(hit -> hit.collect(union));
+    }
+
+    /**
+     * Resolves handlers for a compact group of positions, such as the blocks hit by an explosion, given their bounds.
+     * Regions that miss the bounds or contain all of them are decided once; only regions that partly overlap
+     * the bounds are tested against individual positions, and each stops being tested once it is hit.
+     */
+    public HandlerChain getHandlers(World world, BlockBounds box, Iterable<Vector3i> positions) {
+        if (box.isEmpty()) return HandlerChain.EMPTY;
+        ChunkBounds chunkBox = box.toChunkBounds();
+        Set<IRegion> candidates = new HashSet<>();
+        for (int x = chunkBox.minX; x <= chunkBox.maxX; x++) {
+            for (int z = chunkBox.minZ; z <= chunkBox.maxZ; z++) {
+                Collections.addAll(candidates, getData(world, x, z).getRegionArray());
+            }
+        }
+        Set<IRegion> hit = new HashSet<>();
+        List<IRegion> partial = new ArrayList<>();
+        for (IRegion region : candidates) {
+            if (!region.getBlockBounds(world).intersects(box)) continue;
+            if (region.containsAll(box, world)) hit.add(region);
+            else partial.add(region);
+        }
+        if (!partial.isEmpty()) {
+            for (Vector3i pos : positions) {
+                for (Iterator<IRegion> it = partial.iterator(); it.hasNext(); ) {
+                    IRegion region = it.next();
+                    if (region.contains(pos, world)) {
+                        hit.add(region);
+                        it.remove();
+                    }
                 }
+                if (partial.isEmpty()) break;
             }
         }
+        return intern(hit).chain;
+    }
+
+    private Combination intern(Set<IRegion> regionSet) {
+        if (regionSet.isEmpty()) return EMPTY_COMBINATION;
+        Combination combination = this.combinations.get(regionSet);
+        if (combination == null) {
+            Set<IRegion> key = ImmutableSet.copyOf(regionSet);
+            Set<IHandler> handlerSet = new HashSet<>();
+            for (IRegion region : key) {
+                for (IHandler handler : region.getHandlers()) {
+                    if (handler.isEnabled()) handlerSet.add(handler);
+                }
+            }
+            IHandler[] handlers = handlerSet.toArray(new IHandler[handlerSet.size()]);
+            Arrays.sort(handlers);
+            combination = new Combination(key, HandlerChain.of(handlers));
+            this.combinations.put(key, combination);
+        }
+        return combination;
+    }
+
+    public int getRegionEpoch() {
+        return this.regionEpoch;
+    }
+
+    public int getHandlerEpoch() {
+        return this.handlerEpoch;
+    }
+
+    /**
+     * Finds a box around the given block in which every position is in exactly the same enabled regions.
+     * It never leaves the block's chunk column, and shrinks to the block itself near regions whose shape
+     * cannot be settled from their bounds. The box stays correct until {@link #getRegionEpoch()} changes.
+     */
+    public BlockBounds getSafeBox(World world, Vector3i pos) {
+        int x = pos.getX() & ~15, z = pos.getZ() & ~15;
+        BlockBounds box = BlockBounds.of(new Vector3i(x, world.getBlockMin().getY(), z),
+                new Vector3i(x + 15, world.getBlockMax().getY(), z + 15));
+        BlockBounds single = BlockBounds.of(pos, pos);
+        for (IRegion region : getData(world, x >> 4, z >> 4).getRegionArray()) {
+            BlockBounds bounds = region.getBlockBounds(world);
+            if (!bounds.intersects(box)) continue;
+            if (region.contains(pos, world)) {
+                box = box.intersection(bounds);
+                if (!region.containsAll(box, world)) return single;
+            } else {
+                box = box.excluding(bounds, pos);
+                if (box.isEmpty()) return single;
+            }
+        }
+        return box;
     }
 
     public void clearCaches() {
-        this.chunks.values().forEach(Map::clear);
+        this.chunks.values().forEach(ChunkMap::clear);
+        this.regionChunks.clear();
+        this.combinations.clear();
     }
 
     public ChunkData getData(World world, Vector3i chunk) {
-        return this.chunks.get(world).get(chunk);
+        return getData(world, chunk.getX(), chunk.getZ());
+    }
+
+    public ChunkData getDataAtBlock(World world, int blockX, int blockZ) {
+        return getData(world, blockX >> 4, blockZ >> 4);
+    }
+
+    public ChunkData getData(World world, int chunkX, int chunkZ) {
+        ChunkMap<ChunkData> worldData = this.chunks.get(world);
+        long key = ChunkMap.key(chunkX, chunkZ);
+        ChunkData data = worldData.get(key);
+        if (data == null) {
+            data = new ChunkData(world, chunkX, chunkZ);
+            worldData.put(key, data);
+        }
+        return data;
     }*/
 
     public class ChunkData {
 
         private final World world;
         private final Vector3i chunk;
+        private final int chunkX;
+        private final int chunkZ;
 
         /*private final Set<IRegion> contains;
         private final Set<IRegion> disabled;
-        private final Map<IRegion, DirtyType> dirty;*/
+        private final Map<IRegion, DirtyType> dirty;
+
+        // Enabled regions in this chunk, and the interned combination for each subset of them seen so far.
+        // Subsets are keyed by a bitmask over regionArray, so lookups are a short linear scan with no allocation.
+        private IRegion[] regionArray;
+        private long[] comboMasks = new long[4];
+        private Combination[] combos = new Combination[4];
+        private int comboCount = 0;
+        private int handlerEpoch;*/
         private boolean isDirty = false;
 
 
+        public ChunkData(World world, int chunkX, int chunkZ) {
+            this(world, new Vector3i(chunkX, 0, chunkZ));
+        }
+
         public ChunkData(World world, Vector3i chunk) {
             this.world = world;
             this.chunk = chunk;
+            this.chunkX = chunk.getX();
+            this.chunkZ = chunk.getZ();
             /*this.dirty = new HashMap<>();
             this.contains = new HashSet<>();
             worldRegions.get(world).stream()
@@ -111,12 +315,84 @@ public class RegionCache {
                     .filter(r -> r.isInChunk(chunk))
                     .forEach(disabled::add);
             regions.stream()
-                    .filter(IFGObject::isEnabled)
+                    .filter(r -> !r.isEnabled())
                     .filter(r -> r.isInChunk(chunk, world))
-                    .forEach(disabled::add);*/
+                    .forEach(disabled::add);
+            contains.forEach(r -> regionChunks.get(r).add(this));
+            disabled.forEach(r -> regionChunks.get(r).add(this));
+            resetSnapshot();*/
         }
 
         /*public Set<IRegion> getRegions(boolean includeDisabled) {
+            update();
+            if (includeDisabled) return ImmutableSet.<IRegion>builder().addAll(contains).addAll(disabled).build();
+            else return ImmutableSet.copyOf(contains);
+        }
+
+        public IRegion[] getRegionArray() {
+            snapshot();
+            return this.regionArray;
+        }
+
+        public Combination getCombination(Vector3i pos) {
+            snapshot();
+            IRegion[] regions = this.regionArray;
+            if (regions.length == 0) return EMPTY_COMBINATION;
+            if (regions.length > 64) {
+                Set<IRegion> set = new HashSet<>();
+                for (IRegion region : regions) {
+                    if (region.contains(pos, world)) set.add(region);
+                }
+                return intern(set);
+            }
+            long mask = 0;
+            for (int i = 0; i < regions.length; i++) {
+                if (regions[i].contains(pos, world)) mask |= 1L << i;
+            }
+            if (mask == 0) return EMPTY_COMBINATION;
+            for (int i = 0; i < comboCount; i++) {
+                if (comboMasks[i] == mask) return combos[i];
+            }
+            Set<IRegion> set = new HashSet<>();
+            for (int i = 0; i < regions.length; i++) {
+                if ((mask & (1L << i)) != 0) set.add(regions[i]);
+            }
+            Combination combination = intern(set);
+            if (comboCount == comboMasks.length) {
+                comboMasks = Arrays.copyOf(comboMasks, comboCount * 2);
+                combos = Arrays.copyOf(combos, comboCount * 2);
+            }
+            comboMasks[comboCount] = mask;
+            combos[comboCount++] = combination;
+            return combination;
+        }
+
+        /**
+         * Bitmask over the region array of the regions containing the given position, added to {@code known}.
+         * Regions already in {@code known} are not tested again. Only valid for chunks with at most 64 regions.
+         */
+        private long regionMask(Vector3i pos, long known) {
+            IRegion[] regions = this.regionArray;
+            long mask = known;
+            for (int i = 0; i < regions.length; i++) {
+                if ((mask & (1L << i)) == 0 && regions[i].contains(pos, world)) mask |= 1L << i;
+            }
+            return mask;
+        }
+
+        private void snapshot() {
+            update();
+            if (this.handlerEpoch != RegionCache.this.handlerEpoch) resetSnapshot();
+        }
+
+        private void resetSnapshot() {
+            this.regionArray = contains.toArray(new IRegion[contains.size()]);
+            Arrays.fill(this.combos, null);
+            this.comboCount = 0;
+            this.handlerEpoch = RegionCache.this.handlerEpoch;
+        }
+
+        private void update() {
             if (this.isDirty) {
                 for (Map.Entry<IRegion, DirtyType> entry : dirty.entrySet()) {
                     IRegion r = entry.getKey();
@@ -128,6 +404,9 @@ public class RegionCache {
                                 } else {
                                     disabled.add(r);
                                 }
+                                regionChunks.get(r).add(this);
+                            } else {
+                                regionChunks.get(r).remove(this);
                             }
                             break;
                         case MODIFIED:
@@ -139,9 +418,11 @@ public class RegionCache {
                                     contains.remove(r);
                                     disabled.add(r);
                                 }
+                                regionChunks.get(r).add(this);
                             } else {
                                 contains.remove(r);
                                 disabled.remove(r);
+                                regionChunks.get(r).remove(this);
                             }
                             break;
                         case REMOVED:
@@ -152,9 +433,8 @@ public class RegionCache {
                 }
                 this.dirty.clear();
                 this.isDirty = false;
+                resetSnapshot();
             }
-            if (includeDisabled) return ImmutableSet.<IRegion>builder().addAll(contains).addAll(disabled).build();
-            else return ImmutableSet.copyOf(contains);
         }
 
         public void markDirty(IRegion region, DirtyType type) {
@@ -164,6 +444,223 @@ public class RegionCache {
 
     }
 
+    /*private static final class ChunkHits {
+        private final ChunkData data;
+        private final IRegion[] regions;
+        private final long full;
+        private long mask = 0;
+        private Set<IRegion> overflow;
+
+        private ChunkHits(ChunkData data) {
+            this.data = data;
+            this.regions = data.regionArray;
+            this.full = regions.length >= 64 ? -1L : (1L << regions.length) - 1;
+        }
+
+        private void add(Vector3i pos) {
+            if (regions.length > 64) {
+                if (overflow == null) overflow = new HashSet<>();
+                for (IRegion region : regions) {
+                    if (!overflow.contains(region) && region.contains(pos, data.world)) overflow.add(region);
+                }
+            } else if (mask != full) {
+                mask = data.regionMask(pos, mask);
+            }
+        }
+
+        private void collect(Set<IRegion> out) {
+            if (overflow != null) out.addAll(overflow);
+            for (long m = mask; m != 0; m &= m - 1) {
+                out.add(regions[Long.numberOfTrailingZeros(m)]);
+            }
+        }
+    }
+
+    private static final class Combination {
+        private final Set<IRegion> regions;
+        // Built once per interned combination, so listeners never work out priority tiers per event.
+        private final HandlerChain chain;
+
+        private Combination(Set<IRegion> regions, HandlerChain chain) {
+            this.regions = regions;
+            this.chain = chain;
+        }
+    }*/
+
+    /**
+     * Inclusive rectangle of chunk columns that a region may overlap in a single world.
+     * Regions that cannot be bounded, such as elevation regions, should use {@link #UNBOUNDED}.
+     */
+    public static final class ChunkBounds {
+
+        public static final ChunkBounds UNBOUNDED = new ChunkBounds(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        public static final ChunkBounds EMPTY = new ChunkBounds(0, 0, -1, -1);
+
+        public final int minX;
+        public final int minZ;
+        public final int maxX;
+        public final int maxZ;
+
+        private ChunkBounds(int minX, int minZ, int maxX, int maxZ) {
+            this.minX = minX;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxZ = maxZ;
+        }
+
+        public static ChunkBounds ofChunks(int x1, int z1, int x2, int z2) {
+            return new ChunkBounds(Math.min(x1, x2), Math.min(z1, z2), Math.max(x1, x2), Math.max(z1, z2));
+        }
+
+        public static ChunkBounds ofBlocks(Vector3i a, Vector3i b) {
+            return ofChunks(a.getX() >> 4, a.getZ() >> 4, b.getX() >> 4, b.getZ() >> 4);
+        }
+
+        public boolean isEmpty() {
+            return maxX < minX || maxZ < minZ;
+        }
+
+        public boolean contains(int x, int z) {
+            return x >= minX && x <= maxX && z >= minZ && z <= maxZ;
+        }
+
+        public boolean contains(Vector3i chunk) {
+            return contains(chunk.getX(), chunk.getZ());
+        }
+
+        /**
+         * @return The number of chunk columns inside these bounds, saturated to {@link Long#MAX_VALUE}.
+         */
+        public long area() {
+            if (isEmpty()) return 0;
+            long width = (long) maxX - minX + 1;
+            long length = (long) maxZ - minZ + 1;
+            return width > Long.MAX_VALUE / length ? Long.MAX_VALUE : width * length;
+        }
+
+        @Override
+        public String toString() {
+            return "ChunkBounds{" + minX + "," + minZ + " -> " + maxX + "," + maxZ + "}";
+        }
+    }
+
+    /**
+     * Inclusive box of block positions, used to settle whole groups of positions against a region at once.
+     */
+    public static final class BlockBounds {
+
+        public static final BlockBounds EMPTY = new BlockBounds(0, 0, 0, -1, -1, -1);
+
+        public final int minX;
+        public final int minY;
+        public final int minZ;
+        public final int maxX;
+        public final int maxY;
+        public final int maxZ;
+
+        private BlockBounds(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+        }
+
+        public static BlockBounds of(Vector3i a, Vector3i b) {
+            return new BlockBounds(Math.min(a.getX(), b.getX()), Math.min(a.getY(), b.getY()), Math.min(a.getZ(), b.getZ()),
+                    Math.max(a.getX(), b.getX()), Math.max(a.getY(), b.getY()), Math.max(a.getZ(), b.getZ()));
+        }
+
+        public static BlockBounds of(Iterable<Vector3i> positions) {
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for (Vector3i pos : positions) {
+                if (pos.getX() < minX) minX = pos.getX();
+                if (pos.getY() < minY) minY = pos.getY();
+                if (pos.getZ() < minZ) minZ = pos.getZ();
+                if (pos.getX() > maxX) maxX = pos.getX();
+                if (pos.getY() > maxY) maxY = pos.getY();
+                if (pos.getZ() > maxZ) maxZ = pos.getZ();
+            }
+            if (minX > maxX) return EMPTY;
+            return new BlockBounds(minX, minY, minZ, maxX, maxY, maxZ);
+        }
+
+        public boolean isEmpty() {
+            return maxX < minX || maxY < minY || maxZ < minZ;
+        }
+
+        public boolean contains(int x, int y, int z) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY && z >= minZ && z <= maxZ;
+        }
+
+        public boolean contains(Vector3i pos) {
+            return contains(pos.getX(), pos.getY(), pos.getZ());
+        }
+
+        public boolean contains(BlockBounds other) {
+            return !other.isEmpty() && other.minX >= minX && other.maxX <= maxX
+                    && other.minY >= minY && other.maxY <= maxY
+                    && other.minZ >= minZ && other.maxZ <= maxZ;
+        }
+
+        public boolean intersects(BlockBounds other) {
+            return !isEmpty() && !other.isEmpty()
+                    && other.minX <= maxX && other.maxX >= minX
+                    && other.minY <= maxY && other.maxY >= minY
+                    && other.minZ <= maxZ && other.maxZ >= minZ;
+        }
+
+        public BlockBounds intersection(BlockBounds other) {
+            return new BlockBounds(Math.max(minX, other.minX), Math.max(minY, other.minY), Math.max(minZ, other.minZ),
+                    Math.min(maxX, other.maxX), Math.min(maxY, other.maxY), Math.min(maxZ, other.maxZ));
+        }
+
+        /**
+         * The largest part of this box that still contains the given position but shares no blocks with the other box,
+         * found by cutting along a single face. Empty if the position is inside the other box.
+         */
+        public BlockBounds excluding(BlockBounds other, Vector3i pos) {
+            if (!intersects(other)) return this;
+            BlockBounds best = EMPTY;
+            if (other.maxX < pos.getX()) best = larger(best, new BlockBounds(other.maxX + 1, minY, minZ, maxX, maxY, maxZ));
+            if (other.minX > pos.getX()) best = larger(best, new BlockBounds(minX, minY, minZ, other.minX - 1, maxY, maxZ));
+            if (other.maxY < pos.getY()) best = larger(best, new BlockBounds(minX, other.maxY + 1, minZ, maxX, maxY, maxZ));
+            if (other.minY > pos.getY()) best = larger(best, new BlockBounds(minX, minY, minZ, maxX, other.minY - 1, maxZ));
+            if (other.maxZ < pos.getZ()) best = larger(best, new BlockBounds(minX, minY, other.maxZ + 1, maxX, maxY, maxZ));
+            if (other.minZ > pos.getZ()) best = larger(best, new BlockBounds(minX, minY, minZ, maxX, maxY, other.minZ - 1));
+            return best;
+        }
+
+        /**
+         * @return The number of blocks inside these bounds, saturated to {@link Long#MAX_VALUE}.
+         */
+        public long volume() {
+            if (isEmpty()) return 0;
+            long width = (long) maxX - minX + 1;
+            long height = (long) maxY - minY + 1;
+            long length = (long) maxZ - minZ + 1;
+            if (width > Long.MAX_VALUE / height) return Long.MAX_VALUE;
+            long area = width * height;
+            return area > Long.MAX_VALUE / length ? Long.MAX_VALUE : area * length;
+        }
+
+        private static BlockBounds larger(BlockBounds a, BlockBounds b) {
+            return b.volume() > a.volume() ? b : a;
+        }
+
+        public ChunkBounds toChunkBounds() {
+            if (isEmpty()) return ChunkBounds.EMPTY;
+            return ChunkBounds.ofChunks(minX >> 4, minZ >> 4, maxX >> 4, maxZ >> 4);
+        }
+
+        @Override
+        public String toString() {
+            return "BlockBounds{" + minX + "," + minY + "," + minZ + " -> " + maxX + "," + maxY + "," + maxZ + "}";
+        }
+    }
+
     public enum DirtyType {
         ADDED, MODIFIED, REMOVED
     }
@@ -0,0 +1,91 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.FoxGuardMain;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.filter.Getter;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared UUID to {@link User} lookups, so listeners and handlers that resolve owners on every event
+ * do not go to the user storage service, which may read from disk for offline players.
+ * <p>
+ * Unknown UUIDs are remembered as empty. Players are stored directly when they join and dropped when they leave,
+ * so the only lookups that reach storage are for offline users not seen recently.
+ */
+public final class UserCache {
+
+    private static final UserCache instance = new UserCache();
+
+    private final Cache<UUID, Optional<User>> users = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterWrite(10, TimeUnit.MINUTES)
+            .build();
+
+    private UserCache() {
+    }
+
+    public static UserCache getInstance() {
+        return instance;
+    }
+
+    public Optional<User> get(UUID uuid) {
+        try {
+            return this.users.get(uuid, () -> FoxGuardMain.instance().getUserStorage().get(uuid));
+        } catch (ExecutionException e) {
+            return FoxGuardMain.instance().getUserStorage().get(uuid);
+        }
+    }
+
+    public void invalidate(UUID uuid) {
+        this.users.invalidate(uuid);
+    }
+
+    public void invalidateAll() {
+        this.users.invalidateAll();
+    }
+
+    @Listener(order = Order.POST)
+    public void onJoin(ClientConnectionEvent.Join event, @Getter("getTargetEntity") Player player) {
+        this.users.put(player.getUniqueId(), Optional.of(player));
+    }
+
+    @Listener(order = Order.POST)
+    public void onDisconnect(ClientConnectionEvent.Disconnect event, @Getter("getTargetEntity") Player player) {
+        invalidate(player.getUniqueId());
+    }
+}
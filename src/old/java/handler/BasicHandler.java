@@ -25,9 +25,11 @@
 
 package net.foxdenstudio.sponge.foxguard.pluginold.handler;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import net.foxdenstudio.sponge.foxcore.common.util.CacheMap;
 import net.foxdenstudio.sponge.foxcore.common.util.FCCUtil;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.AdvCmdParser;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.FlagMapper;
@@ -38,11 +40,16 @@ import net.foxdenstudio.sponge.foxguard.pluginold.FGStorageManager;
 import net.foxdenstudio.sponge.foxguard.pluginold.FoxGuardMain;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.Flag;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.TristateCache;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagRegistry;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.GroupMask;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.GroupPermCaches;
 import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.Operation;
 import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.TristateEntry;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.TristateTable;
 import net.foxdenstudio.sponge.foxguard.pluginold.listener.util.EventResult;
 import net.foxdenstudio.sponge.foxguard.pluginold.object.factory.IHandlerFactory;
+import net.foxdenstudio.sponge.foxguard.pluginold.util.DisconnectRegistry;
 import net.foxdenstudio.sponge.foxguard.pluginold.util.EverythingSet;
 import net.foxdenstudio.sponge.foxguard.pluginold.util.ExtraContext;
 import net.foxdenstudio.sponge.foxguard.pluginold.util.FGUtil;
@@ -72,13 +79,17 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static net.foxdenstudio.sponge.foxcore.plugin.util.Aliases.*;
 import static net.foxdenstudio.sponge.foxguard.pluginold.flag.Flags.*;
 import static org.spongepowered.api.util.Tristate.*;
 
-public class BasicHandler extends HandlerBase {
+public class BasicHandler extends HandlerBase implements DisconnectRegistry.Subscriber {
 
     private static final FlagMapper MAPPER = map -> key -> value -> {
         map.put(key, value);
@@ -92,21 +103,29 @@ public class BasicHandler extends HandlerBase {
         return true;
     };
 
+    private static final int USER_CACHE_SIZE = 5000;
+    private static final long USER_CACHE_IDLE_MINUTES = 30;
+
     private final List<Group> groups;
     private final Map<Group, List<TristateEntry>> groupPermissions;
     private final Group defaultGroup;
     private final List<TristateEntry> defaultPermissions;
 
-    private final Map<Group, Map<FlagSet, Tristate>> groupPermCache;
-    private final Map<FlagSet, Tristate> defaultPermCache;
-    private final Map<Set<Group>, Map<FlagSet, Tristate>> groupSetPermCache;
-    private final Map<UUID, Set<Group>> userGroupCache;
-    private final Map<UUID, Map<FlagSet, Tristate>> userPermCache;
-
-    private PassiveSetting passiveSetting = PassiveSetting.PASSTHROUGH;
-    private Group passiveGroup;
-    private Map<FlagSet, Tristate> passiveGroupCacheRef;
-    private final Map<FlagSet, Tristate> passivePermCache;
+    private final Map<Group, TristateTable> groupTables;
+    private volatile TristateTable defaultTable;
+    private final GroupPermCaches<Group> permCaches;
+    /**
+     * Reverse membership index, kept in step with {@link Group#users} by the user mutators.
+     * The default group is implicit and never appears in a mask.
+     */
+    private final Map<UUID, GroupMask> userGroups;
+    private final Cache<UUID, UserEntry> userCache;
+    private final AtomicInteger membershipVersion = new AtomicInteger();
+
+    private volatile PassiveSetting passiveSetting = PassiveSetting.PASSTHROUGH;
+    private volatile Group passiveGroup;
+    private volatile TristateCache passiveGroupCacheRef;
+    private final TristateCache passivePermCache;
 
     public BasicHandler(String name, int priority) {
         this(name, true, priority,
@@ -122,115 +141,50 @@ public class BasicHandler extends HandlerBase {
                         Group defaultGroup,
                         List<TristateEntry> defaultPermissions) {
         super(name, priority, isEnabled);
-        this.groups = groups;
+        this.groups = new CopyOnWriteArrayList<>(groups);
         this.defaultGroup = defaultGroup;
 
         this.groupPermissions = groupPermissions;
         this.defaultPermissions = defaultPermissions;
 
-        this.groupPermCache = new CacheMap<>((k1, m1) -> {
-            if (k1 instanceof Group) {
-                List<TristateEntry> entries = BasicHandler.this.groupPermissions.get(k1);
-                Map<FlagSet, Tristate> map = new CacheMap<>((k2, m2) -> {
-                    if (k2 instanceof FlagSet) {
-                        FlagSet flags = (FlagSet) k2;
-                        Tristate state = null;
-                        for (TristateEntry entry : entries) {
-                            if (flags.toFlagSet().containsAll(entry.set)) {
-                                state = entry.tristate;
-                                break;
-                            }
-                        }
-                        m2.put(flags, state);
-                        return state;
-                    } else return null;
-                });
-                m1.put((Group) k1, map);
-                return map;
-            } else return null;
-        });
-        this.defaultPermCache = new CacheMap<>((k, m) -> {
-            if (k instanceof FlagSet) {
-                FlagSet flags = (FlagSet) k;
-                Tristate state = Tristate.UNDEFINED;
-                for (TristateEntry entry : BasicHandler.this.defaultPermissions) {
-                    if (flags.toFlagSet().containsAll(entry.set)) {
-                        state = entry.tristate;
-                        break;
-                    }
-                }
-                m.put(flags, state);
-                return state;
-            } else return null;
-        });
-        this.groupSetPermCache = new CacheMap<>((k1, m1) -> {
-            if (k1 instanceof Set) {
-                for (Object o : (Set) k1) {
-                    if (!(o instanceof Group)) return null;
-                }
-                Set<Group> set = (Set<Group>) k1;
-                List<Group> list = new ArrayList<>(set);
-                Collections.sort(list, (g1, g2) -> this.groups.indexOf(g1) - this.groups.indexOf(g2));
-                Map<FlagSet, Tristate> map = new CacheMap<>((k2, m2) -> {
-                    if (k2 instanceof FlagSet) {
-                        Tristate state = null;
-                        FlagSet flags = (FlagSet) k2;
-                        for (Group group : list) {
-                            state = this.groupPermCache.get(group).get(flags);
-                            if (state != null) break;
-                        }
-                        if (state == null) state = this.defaultPermCache.get(flags);
-                        m2.put(flags, state);
-                        return state;
-                    } else return null;
-                });
-                m1.put(set, map);
-                return map;
-            } else return null;
-        });
-        this.userGroupCache = new CacheMap<>((k, m) -> {
-            if (k instanceof UUID) {
-                UUID user = ((UUID) k);
-                Set<Group> userGroups = this.groups.stream().filter(group -> group.users.contains(user)).collect(GuavaCollectors.toImmutableSet());
-                m.put(user, userGroups);
-                return userGroups;
-            } else return null;
-        });
-        this.userPermCache = new CacheMap<>((k, m) -> {
-            if (k instanceof UUID) {
-                UUID user = ((UUID) k);
-                Set<Group> userGroups = this.userGroupCache.get(user);
-                Map<FlagSet, Tristate> permCache;
-                if (userGroups.size() == 0)
-                    permCache = this.defaultPermCache;
-                else {
-                    permCache = this.groupSetPermCache.get(userGroups);
-                }
-                m.put(user, permCache);
-                return permCache;
-            } else return null;
-        });
-        this.passivePermCache = new CacheMap<>((k, m) -> {
-            if (k instanceof FlagSet) {
-                FlagSet flags = (FlagSet) k;
-                Tristate state = Tristate.UNDEFINED;
-                switch (passiveSetting) {
-                    case ALLOW:
-                        state = TRUE;
-                        break;
-                    case DENY:
-                        state = FALSE;
-                        break;
-                    case GROUP:
-                        state = passiveGroupCacheRef.get(flags);
-                        break;
-                    case DEFAULT:
-                        state = defaultPermCache.get(flags);
-                        break;
-                }
-                m.put(flags, state);
-                return state;
-            } else return null;
+        this.groupTables = new ConcurrentHashMap<>();
+        for (Group group : this.groups) {
+            this.groupTables.put(group, TristateTable.compile(groupPermissions.get(group)));
+        }
+        this.defaultTable = TristateTable.compile(defaultPermissions);
+        this.permCaches = new GroupPermCaches<>(this.groups, this.groupTables::get,
+                flags -> BasicHandler.this.defaultTable.get(flags, Tristate.UNDEFINED));
+        this.userGroups = new ConcurrentHashMap<>();
+        for (Group group : this.groups) {
+            int slot = this.permCaches.getSlot(group);
+            for (UUID user : group.users) {
+                this.userGroups.merge(user, GroupMask.of(slot), (a, b) -> a.with(slot));
+            }
+        }
+        this.userCache = CacheBuilder.newBuilder()
+                .maximumSize(USER_CACHE_SIZE)
+                .expireAfterAccess(USER_CACHE_IDLE_MINUTES, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        DisconnectRegistry.getInstance().subscribe(this);
+        this.passivePermCache = new TristateCache(flags -> {
+            Tristate state = Tristate.UNDEFINED;
+            switch (passiveSetting) {
+                case ALLOW:
+                    state = TRUE;
+                    break;
+                case DENY:
+                    state = FALSE;
+                    break;
+                case GROUP:
+                    TristateCache groupCache = passiveGroupCacheRef;
+                    if (groupCache != null) state = groupCache.get(flags);
+                    break;
+                case DEFAULT:
+                    state = permCaches.getDefaultCache().get(flags);
+                    break;
+            }
+            return state;
         });
     }
 
@@ -1021,7 +975,7 @@ public class BasicHandler extends HandlerBase {
     @Override
     public EventResult handle(@Nullable User user, FlagSet flags, ExtraContext extra) {
         if (user == null) return EventResult.of(this.passivePermCache.get(flags));
-        else return EventResult.of(this.userPermCache.get(user.getUniqueId()).get(flags));
+        else return EventResult.of(this.permCaches.get(getUserCache(user.getUniqueId()), flags));
     }
 
     @Override
@@ -1129,6 +1083,10 @@ public class BasicHandler extends HandlerBase {
                     .onClick(TextActions.suggestCommand("/foxguard md h " + this.name + " flags default set " + (index++) + " "));
             builder.append(Text.NEW_LINE).append(entryBuilder.build());
         }
+        CacheStats stats = this.userCache.stats();
+        builder.append(Text.NEW_LINE).append(Text.of(TextColors.GRAY,
+                "User cache: " + this.userCache.size() + " users, " + stats.hitCount() + " hits, "
+                        + stats.missCount() + " misses, " + stats.evictionCount() + " evictions"));
         return builder.build();
     }
 
@@ -1205,8 +1163,11 @@ public class BasicHandler extends HandlerBase {
             if (g.name.equalsIgnoreCase(name)) return Optional.empty();
         }
         Group group = new Group(name);
-        this.groups.add(group);
         this.groupPermissions.put(group, new ArrayList<>());
+        this.groupTables.put(group, TristateTable.EMPTY);
+        this.permCaches.assignSlot(group);
+        this.groups.add(group);
+        this.permCaches.reorder(this.groups, group);
         return Optional.of(group);
     }
 
@@ -1225,8 +1186,11 @@ public class BasicHandler extends HandlerBase {
             if (g.name.equalsIgnoreCase(name)) return Optional.of(g);
         }
         Group group = new Group(name);
-        this.groups.add(group);
         this.groupPermissions.put(group, new ArrayList<>());
+        this.groupTables.put(group, TristateTable.EMPTY);
+        this.permCaches.assignSlot(group);
+        this.groups.add(group);
+        this.permCaches.reorder(this.groups, group);
         return Optional.of(group);
     }
 
@@ -1244,17 +1208,14 @@ public class BasicHandler extends HandlerBase {
 
     public boolean removeGroup(Group group) {
         if (this.groups.contains(group)) {
+            this.groups.remove(group);
             this.groupPermissions.remove(group);
-            this.groupPermCache.remove(group);
-            group.users.forEach(this.userGroupCache::remove);
-            group.users.forEach(this.userPermCache::remove);
-            Set<Set<Group>> groupSuperSet = new HashSet<>();
-            for (Map.Entry<Set<Group>, Map<FlagSet, Tristate>> entry : this.groupSetPermCache.entrySet()) {
-                Set<Group> key = entry.getKey();
-                if (key.contains(group)) groupSuperSet.add(key);
+            this.groupTables.remove(group);
+            for (UUID user : group.users) {
+                unindexUser(group, user);
             }
-            groupSuperSet.forEach(this.groupSetPermCache::remove);
-            this.groups.remove(group);
+            this.permCaches.remove(this.groups, group);
+            invalidateUsers();
             if (group.equals(passiveGroup)) this.setPassiveSetting(PassiveSetting.PASSTHROUGH);
             return true;
         }
@@ -1277,13 +1238,8 @@ public class BasicHandler extends HandlerBase {
             if (index < 0) index = 0;
             if (index > this.groups.size()) index = this.groups.size();
             this.groups.add(index, group);
-            group.users.forEach(this.userPermCache::remove);
-            Set<Set<Group>> groupSuperSet = new HashSet<>();
-            for (Map.Entry<Set<Group>, Map<FlagSet, Tristate>> entry : this.groupSetPermCache.entrySet()) {
-                Set<Group> key = entry.getKey();
-                if (key.contains(group)) groupSuperSet.add(key);
-            }
-            groupSuperSet.forEach(this.groupSetPermCache::remove);
+            this.permCaches.reorder(this.groups, group);
+            invalidateUsers();
             return true;
         } else return false;
     }
@@ -1306,8 +1262,9 @@ public class BasicHandler extends HandlerBase {
             return false;
         } else {
             group.users.add(user);
-            this.userPermCache.remove(user);
-            this.userGroupCache.remove(user);
+            int slot = this.permCaches.getSlot(group);
+            this.userGroups.compute(user, (k, mask) -> mask == null ? GroupMask.of(slot) : mask.with(slot));
+            invalidateUsers();
             return true;
         }
     }
@@ -1320,18 +1277,27 @@ public class BasicHandler extends HandlerBase {
         if (!group.users.contains(user)) {
             return false;
         } else if (group.users.remove(user)) {
-            this.userGroupCache.remove(user);
-            this.userPermCache.remove(user);
+            unindexUser(group, user);
+            invalidateUsers();
             return true;
         } else return false;
     }
 
     public void clearUsers(Group group) {
-        for (UUID user : group.users) {
-            this.userGroupCache.remove(user);
-            this.userPermCache.remove(user);
-        }
+        Set<UUID> users = new HashSet<>(group.users);
         group.users.clear();
+        for (UUID user : users) {
+            unindexUser(group, user);
+        }
+        invalidateUsers();
+    }
+
+    private void unindexUser(Group group, UUID user) {
+        int slot = this.permCaches.getSlot(group);
+        this.userGroups.computeIfPresent(user, (k, mask) -> {
+            GroupMask remaining = mask.without(slot);
+            return remaining.isEmpty() ? null : remaining;
+        });
     }
 
     public boolean addFlagEntry(Group group, TristateEntry entry) {
@@ -1355,6 +1321,7 @@ public class BasicHandler extends HandlerBase {
         for (TristateEntry groupEntry : groupEntries) {
             if (groupEntry.set.equals(entry.set)) {
                 groupEntry.tristate = entry.tristate;
+                clearFlagCacheForGroup(group);
                 return;
             }
         }
@@ -1455,7 +1422,7 @@ public class BasicHandler extends HandlerBase {
                 this.passiveGroup = null;
             } else {
                 this.passiveGroup = group;
-                this.passiveGroupCacheRef = this.groupPermCache.get(group);
+                this.passiveGroupCacheRef = this.permCaches.getGroupCache(group);
             }
             this.passivePermCache.clear();
         }
@@ -1463,23 +1430,40 @@ public class BasicHandler extends HandlerBase {
 
     private void clearFlagCacheForGroup(Group group) {
         if (group == defaultGroup) {
-            this.defaultPermCache.clear();
-            this.userPermCache.clear();
-            this.groupSetPermCache.clear();
+            this.defaultTable = TristateTable.compile(this.defaultPermissions);
+            this.permCaches.clearDefault();
             if (this.passiveSetting == PassiveSetting.DEFAULT) this.passivePermCache.clear();
         } else {
-            this.groupPermCache.get(group).clear();
-            group.users.forEach(this.userPermCache::remove);
-            Set<Set<Group>> groupSuperSet = new HashSet<>();
-            for (Map.Entry<Set<Group>, Map<FlagSet, Tristate>> cacheEntry : this.groupSetPermCache.entrySet()) {
-                Set<Group> key = cacheEntry.getKey();
-                if (key.contains(group)) groupSuperSet.add(key);
-            }
-            groupSuperSet.forEach(this.groupSetPermCache::remove);
+            this.groupTables.put(group, TristateTable.compile(this.groupPermissions.get(group)));
+            this.permCaches.clearGroup(group);
             if (this.passiveSetting == PassiveSetting.GROUP && this.passiveGroup == group)
                 this.passivePermCache.clear();
         }
+    }
+
+    /**
+     * Resolves the permission cache for a user's combination of groups.
+     * Entries remember the membership version they were resolved against and are re-resolved lazily once it moves on,
+     * so a resolution that races with a membership change can never be served afterwards.
+     */
+    private TristateCache getUserCache(UUID user) {
+        int version = this.membershipVersion.get();
+        UserEntry entry = this.userCache.getIfPresent(user);
+        if (entry == null || entry.version != version) {
+            GroupMask mask = this.userGroups.getOrDefault(user, GroupMask.EMPTY);
+            entry = new UserEntry(version, this.permCaches.getGroupSetCache(mask));
+            this.userCache.put(user, entry);
+        }
+        return entry.permCache;
+    }
 
+    private void invalidateUsers() {
+        this.membershipVersion.incrementAndGet();
+    }
+
+    @Override
+    public void onDisconnect(UUID user) {
+        this.userCache.invalidate(user);
     }
 
     private List<TristateEntry> getGroupPermissions(Group group) {
@@ -1517,6 +1501,16 @@ public class BasicHandler extends HandlerBase {
         }
     }
 
+    private static final class UserEntry {
+        private final int version;
+        private final TristateCache permCache;
+
+        private UserEntry(int version, TristateCache permCache) {
+            this.version = version;
+            this.permCache = permCache;
+        }
+    }
+
     public static class Group {
         private String name;
         private String displayName;
@@ -1524,7 +1518,7 @@ public class BasicHandler extends HandlerBase {
         private final Set<UUID> users;
 
         private Group(String name) {
-            this(name, new HashSet<>());
+            this(name, ConcurrentHashMap.newKeySet());
         }
 
         private Group(String name, Set<UUID> users) {
@@ -1589,7 +1583,7 @@ public class BasicHandler extends HandlerBase {
                     owners.displayName = "Owners";
                     owners.color = TextColors.GOLD;
                     handler.addFlagEntry(owners, new TristateEntry(ImmutableSet.of(DEBUFF), TRUE));
-                    if (source instanceof Player) owners.users.add(((Player) source).getUniqueId());
+                    if (source instanceof Player) handler.addUser(owners, ((Player) source).getUniqueId());
 
                     Group members = handler.createGroup("members").get();
                     members.displayName = "Members";
@@ -1610,7 +1604,7 @@ public class BasicHandler extends HandlerBase {
                     owners.displayName = "Owners";
                     owners.color = TextColors.GOLD;
                     handler.addFlagEntry(owners, new TristateEntry(ImmutableSet.of(DEBUFF), TRUE));
-                    if (source instanceof Player) owners.users.add(((Player) source).getUniqueId());
+                    if (source instanceof Player) handler.addUser(owners, ((Player) source).getUniqueId());
 
                     Group members = handler.createGroup("members").get();
                     members.displayName = "Members";
@@ -1627,7 +1621,7 @@ public class BasicHandler extends HandlerBase {
                     owners.displayName = "Owners";
                     owners.color = TextColors.GOLD;
                     handler.addFlagEntry(owners, new TristateEntry(ImmutableSet.of(DEBUFF), TRUE));
-                    if (source instanceof Player) owners.users.add(((Player) source).getUniqueId());
+                    if (source instanceof Player) handler.addUser(owners, ((Player) source).getUniqueId());
 
                     Group members = handler.createGroup("members").get();
                     members.displayName = "Members";
@@ -1676,7 +1670,7 @@ public class BasicHandler extends HandlerBase {
                 Set<UUID> members = optionalMemberUUIDsList.stream()
                         .filter(Optional::isPresent)
                         .map(Optional::get)
-                        .collect(Collectors.toSet());
+                        .collect(Collectors.toCollection(ConcurrentHashMap::newKeySet));
                 String displayName = root.getNode("displayname").getString(groupName);
                 TextColor color = Sponge.getRegistry().getType(TextColor.class, root.getNode("color").getString("white")).orElse(TextColors.WHITE);
                 groups.add(new Group(groupName, members, color, displayName));
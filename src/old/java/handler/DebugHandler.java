@@ -36,6 +36,7 @@ import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.Operation;
 import net.foxdenstudio.sponge.foxguard.pluginold.listener.util.EventResult;
 import net.foxdenstudio.sponge.foxguard.pluginold.object.factory.IHandlerFactory;
 import net.foxdenstudio.sponge.foxguard.pluginold.util.ExtraContext;
+import net.foxdenstudio.sponge.foxguard.pluginold.util.UserCache;
 import ninja.leaping.configurate.commented.CommentedConfigurationNode;
 import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.loader.ConfigurationLoader;
@@ -92,10 +93,8 @@ public class DebugHandler extends HandlerBase {
             }
         }*/
 
-        UserStorageService storageService = FoxGuardMain.instance().getUserStorage();
-
         for (UUID uuid : this.members) {
-            Optional<User> listenerOpt = storageService.get(uuid);
+            Optional<User> listenerOpt = UserCache.getInstance().get(uuid);
             if (listenerOpt.isPresent()) {
                 Optional<Player> playerOpt = listenerOpt.get().getPlayer();
                 if (playerOpt.isPresent()) {
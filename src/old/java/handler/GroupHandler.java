@@ -25,8 +25,9 @@
 
 package net.foxdenstudio.sponge.foxguard.pluginold.handler;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
-import net.foxdenstudio.sponge.foxcore.common.util.CacheMap;
 import net.foxdenstudio.sponge.foxcore.common.util.FCCUtil;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.AdvCmdParser;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.FlagMapper;
@@ -34,11 +35,16 @@ import net.foxdenstudio.sponge.foxcore.plugin.command.util.ProcessResult;
 import net.foxdenstudio.sponge.foxcore.plugin.util.Aliases;
 import net.foxdenstudio.sponge.foxcore.plugin.util.FCPUtil;
 import net.foxdenstudio.sponge.foxguard.pluginold.FGStorageManager;
+import net.foxdenstudio.sponge.foxguard.pluginold.config.FGConfigManager;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.Flag;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagRegistry;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.GroupMask;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.GroupPermCaches;
 import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.Operation;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.PermissionCache;
 import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.TristateEntry;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.TristateTable;
 import net.foxdenstudio.sponge.foxguard.pluginold.listener.util.EventResult;
 import net.foxdenstudio.sponge.foxguard.pluginold.object.factory.IHandlerFactory;
 import net.foxdenstudio.sponge.foxguard.pluginold.util.ExtraContext;
@@ -67,6 +73,10 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static net.foxdenstudio.sponge.foxcore.plugin.util.Aliases.*;
@@ -74,6 +84,7 @@ import static net.foxdenstudio.sponge.foxcore.plugin.util.Aliases.*;
 public class GroupHandler extends HandlerBase {
 
     private static final String[] PERMISSION_ALIASES = {"permission", "perm", "perms", "p"};
+    private static final int MEMBERSHIP_CACHE_SIZE = 5000;
 
     private static final FlagMapper MAPPER = map -> key -> value -> {
         map.put(key, value);
@@ -94,9 +105,16 @@ public class GroupHandler extends HandlerBase {
     private final Group defaultGroup;
     private final List<TristateEntry> defaultPermissions;
 
-    private final Map<Group, Map<FlagSet, Tristate>> groupPermCache;
-    private final Map<FlagSet, Tristate> defaultPermCache;
-    private final Map<Set<Group>, Map<FlagSet, Tristate>> groupSetPermCache;
+    private final Map<Group, TristateTable> groupTables;
+    private volatile TristateTable defaultTable;
+    private final GroupPermCaches<Group> permCaches;
+    /**
+     * Which groups each user resolved to, stamped with the user's {@link PermissionCache} token and the membership version.
+     * Entries expire after the configured time as well, and are then re-resolved from the permission service directly,
+     * since changes the permission plugin does not announce never reach the permission cache.
+     */
+    private final Cache<UUID, Membership> membershipCache;
+    private final AtomicInteger membershipVersion = new AtomicInteger();
 
     public GroupHandler(String name, int priority) {
         this(name, true, priority,
@@ -112,72 +130,23 @@ public class GroupHandler extends HandlerBase {
                         Group defaultGroup,
                         List<TristateEntry> defaultPermissions) {
         super(name, priority, isEnabled);
-        this.groups = groups;
+        this.groups = new CopyOnWriteArrayList<>(groups);
         this.defaultGroup = defaultGroup;
 
         this.groupPermissions = groupPermissions;
         this.defaultPermissions = defaultPermissions;
 
-        this.groupPermCache = new CacheMap<>((k1, m1) -> {
-            if (k1 instanceof Group) {
-                List<TristateEntry> entries = GroupHandler.this.groupPermissions.get(k1);
-                Map<FlagSet, Tristate> map = new CacheMap<>((k2, m2) -> {
-                    if (k2 instanceof FlagSet) {
-                        FlagSet flags = (FlagSet) k2;
-                        Tristate state = null;
-                        for (TristateEntry entry : entries) {
-                            if (flags.toFlagSet().containsAll(entry.set)) {
-                                state = entry.tristate;
-                                break;
-                            }
-                        }
-                        m2.put(flags, state);
-                        return state;
-                    } else return null;
-                });
-                m1.put((Group) k1, map);
-                return map;
-            } else return null;
-        });
-        this.defaultPermCache = new CacheMap<>((k, m) -> {
-            if (k instanceof FlagSet) {
-                FlagSet flags = (FlagSet) k;
-                Tristate state = Tristate.UNDEFINED;
-                for (TristateEntry entry : GroupHandler.this.defaultPermissions) {
-                    if (flags.toFlagSet().containsAll(entry.set)) {
-                        state = entry.tristate;
-                        break;
-                    }
-                }
-                m.put(flags, state);
-                return state;
-            } else return null;
-        });
-        this.groupSetPermCache = new CacheMap<>((k1, m1) -> {
-            if (k1 instanceof Set) {
-                for (Object o : (Set) k1) {
-                    if (!(o instanceof Group)) return null;
-                }
-                Set<Group> set = (Set<Group>) k1;
-                List<Group> list = new ArrayList<>(set);
-                Collections.sort(list, (g1, g2) -> this.groups.indexOf(g1) - this.groups.indexOf(g2));
-                Map<FlagSet, Tristate> map = new CacheMap<>((k2, m2) -> {
-                    if (k2 instanceof FlagSet) {
-                        Tristate state = null;
-                        FlagSet flags = (FlagSet) k2;
-                        for (Group group : list) {
-                            state = this.groupPermCache.get(group).get(flags);
-                            if (state != null) break;
-                        }
-                        if (state == null) state = this.defaultPermCache.get(flags);
-                        m2.put(flags, state);
-                        return state;
-                    } else return null;
-                });
-                m1.put(set, map);
-                return map;
-            } else return null;
-        });
+        this.groupTables = new ConcurrentHashMap<>();
+        for (Group group : this.groups) {
+            this.groupTables.put(group, TristateTable.compile(groupPermissions.get(group)));
+        }
+        this.defaultTable = TristateTable.compile(defaultPermissions);
+        this.permCaches = new GroupPermCaches<>(this.groups, this.groupTables::get,
+                flags -> GroupHandler.this.defaultTable.get(flags, Tristate.UNDEFINED));
+        this.membershipCache = CacheBuilder.newBuilder()
+                .maximumSize(MEMBERSHIP_CACHE_SIZE)
+                .expireAfterWrite(Math.max(1, FGConfigManager.getInstance().getGroupMembershipCacheSeconds()), TimeUnit.SECONDS)
+                .build();
     }
 
     public ProcessResult modify(CommandSource source, String arguments) throws CommandException {
@@ -212,6 +181,7 @@ public class GroupHandler extends HandlerBase {
                             }
                             group.specialPermission = true;
                             group.permission = permissionString;
+                            invalidateMembership();
                         }
                     }
                     if (parse.flags.containsKey("color")) {
@@ -263,6 +233,7 @@ public class GroupHandler extends HandlerBase {
                         if (permissionString.isEmpty()) {
                             group.specialPermission = false;
                             group.permission = "";
+                            invalidateMembership();
                         } else {
                             if (!permissionString.matches("[\\w\\-.]+") ||
                                     permissionString.matches("^.*\\.\\..*$") ||
@@ -272,6 +243,7 @@ public class GroupHandler extends HandlerBase {
                             }
                             group.specialPermission = true;
                             group.permission = permissionString;
+                            invalidateMembership();
                         }
                     }
                     if (parse.flags.containsKey("color")) {
@@ -800,18 +772,14 @@ public class GroupHandler extends HandlerBase {
     @Override
     public EventResult handle(@Nullable User user, FlagSet flags, ExtraContext extra) {
         if (user == null) return EventResult.pass();
-        else {
-            Set<Group> set = new HashSet<>();
-            final String prefix = "foxguard.handler." + this.name.toLowerCase() + ".";
-            for (Group g : this.groups) {
-                if (g.specialPermission) {
-                    if (user.hasPermission(g.permission)) set.add(g);
-                } else {
-                    if (user.hasPermission(prefix + g.name)) set.add(g);
-                }
-            }
-            return EventResult.of(this.groupSetPermCache.get(set).get(flags));
-        }
+        GroupMask mask = getMembership(user);
+        return EventResult.of(this.permCaches.get(mask, flags));
+    }
+
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        invalidateMembership();
     }
 
     @Override
@@ -943,8 +911,12 @@ public class GroupHandler extends HandlerBase {
             if (g.name.equalsIgnoreCase(name)) return Optional.empty();
         }
         Group group = new Group(name);
-        this.groups.add(group);
+        this.permCaches.assignSlot(group);
         this.groupPermissions.put(group, new ArrayList<>());
+        this.groupTables.put(group, TristateTable.EMPTY);
+        this.groups.add(group);
+        this.permCaches.reorder(this.groups, group);
+        invalidateMembership();
         return Optional.of(group);
     }
 
@@ -963,8 +935,12 @@ public class GroupHandler extends HandlerBase {
             if (g.name.equalsIgnoreCase(name)) return Optional.of(g);
         }
         Group group = new Group(name);
-        this.groups.add(group);
+        this.permCaches.assignSlot(group);
         this.groupPermissions.put(group, new ArrayList<>());
+        this.groupTables.put(group, TristateTable.EMPTY);
+        this.groups.add(group);
+        this.permCaches.reorder(this.groups, group);
+        invalidateMembership();
         return Optional.of(group);
     }
 
@@ -982,15 +958,11 @@ public class GroupHandler extends HandlerBase {
 
     public boolean removeGroup(Group group) {
         if (this.groups.contains(group)) {
-            this.groupPermissions.remove(group);
-            this.groupPermCache.remove(group);
-            Set<Set<Group>> groupSuperSet = new HashSet<>();
-            for (Map.Entry<Set<Group>, Map<FlagSet, Tristate>> entry : this.groupSetPermCache.entrySet()) {
-                Set<Group> key = entry.getKey();
-                if (key.contains(group)) groupSuperSet.add(key);
-            }
-            groupSuperSet.forEach(this.groupSetPermCache::remove);
             this.groups.remove(group);
+            this.groupPermissions.remove(group);
+            this.groupTables.remove(group);
+            this.permCaches.remove(this.groups, group);
+            invalidateMembership();
             return true;
         }
         return false;
@@ -1012,12 +984,7 @@ public class GroupHandler extends HandlerBase {
             if (index < 0) index = 0;
             if (index > this.groups.size()) index = this.groups.size();
             this.groups.add(index, group);
-            Set<Set<Group>> groupSuperSet = new HashSet<>();
-            for (Map.Entry<Set<Group>, Map<FlagSet, Tristate>> entry : this.groupSetPermCache.entrySet()) {
-                Set<Group> key = entry.getKey();
-                if (key.contains(group)) groupSuperSet.add(key);
-            }
-            groupSuperSet.forEach(this.groupSetPermCache::remove);
+            this.permCaches.reorder(this.groups, group);
             return true;
         } else return false;
     }
@@ -1027,6 +994,7 @@ public class GroupHandler extends HandlerBase {
         if (this.groups.contains(group)) {
             if (groupExists(newName)) return false;
             group.name = newName.toLowerCase();
+            invalidateMembership();
             return true;
         } else return false;
     }
@@ -1052,6 +1020,7 @@ public class GroupHandler extends HandlerBase {
         for (TristateEntry groupEntry : groupEntries) {
             if (groupEntry.set.equals(entry.set)) {
                 groupEntry.tristate = entry.tristate;
+                clearFlagCacheForGroup(group);
                 return;
             }
         }
@@ -1133,18 +1102,46 @@ public class GroupHandler extends HandlerBase {
 
     private void clearFlagCacheForGroup(Group group) {
         if (group == defaultGroup) {
-            this.defaultPermCache.clear();
-            this.groupSetPermCache.clear();
+            this.defaultTable = TristateTable.compile(this.defaultPermissions);
+            this.permCaches.clearDefault();
         } else {
-            this.groupPermCache.get(group).clear();
-            Set<Set<Group>> groupSuperSet = new HashSet<>();
-            for (Map.Entry<Set<Group>, Map<FlagSet, Tristate>> cacheEntry : this.groupSetPermCache.entrySet()) {
-                Set<Group> key = cacheEntry.getKey();
-                if (key.contains(group)) groupSuperSet.add(key);
+            this.groupTables.put(group, TristateTable.compile(this.groupPermissions.get(group)));
+            this.permCaches.clearGroup(group);
+        }
+    }
+
+    /**
+     * Resolves which groups a user belongs to, going to the permission service only when the cached answer is stale.
+     * An answer is stale once the user's permission results were invalidated, the groups or their nodes changed,
+     * or the configured lifetime ran out. In the last case, and on first lookup, the cached permission results
+     * are refreshed as well, or they would just hand back the same stale answers.
+     */
+    private GroupMask getMembership(User user) {
+        UUID uuid = user.getUniqueId();
+        PermissionCache.Results permissions = PermissionCache.getInstance().get(user);
+        int version = this.membershipVersion.get();
+        Membership membership = this.membershipCache.getIfPresent(uuid);
+        if (membership == null || membership.stamp != permissions || membership.version != version) {
+            final boolean refresh = membership == null;
+            final String prefix = "foxguard.handler." + this.name.toLowerCase() + ".";
+            GroupMask mask = GroupMask.EMPTY;
+            for (Group g : this.groups) {
+                // a group removed since this iteration began has already lost its slot
+                int slot = this.permCaches.getSlot(g);
+                if (slot < 0) continue;
+                String node = g.specialPermission ? g.permission : prefix + g.name;
+                if (refresh ? permissions.refresh(node) : permissions.hasPermission(node)) {
+                    mask = mask.with(slot);
+                }
             }
-            groupSuperSet.forEach(this.groupSetPermCache::remove);
+            membership = new Membership(permissions, version, mask);
+            this.membershipCache.put(uuid, membership);
         }
+        return membership.mask;
+    }
 
+    private void invalidateMembership() {
+        this.membershipVersion.incrementAndGet();
     }
 
     private List<TristateEntry> getGroupPermissions(Group group) {
@@ -1174,6 +1171,18 @@ public class GroupHandler extends HandlerBase {
         return true;
     }
 
+    private static final class Membership {
+        private final Object stamp;
+        private final int version;
+        private final GroupMask mask;
+
+        private Membership(Object stamp, int version, GroupMask mask) {
+            this.stamp = stamp;
+            this.version = version;
+            this.mask = mask;
+        }
+    }
+
     public static class Group {
         private String name;
         private String displayName;
@@ -26,14 +26,15 @@
 package net.foxdenstudio.sponge.foxguard.pluginold.handler;
 
 import com.google.common.collect.ImmutableList;
-import net.foxdenstudio.sponge.foxcore.common.util.CacheMap;
 import net.foxdenstudio.sponge.foxcore.common.util.FCCUtil;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.AdvCmdParser;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.ProcessResult;
 import net.foxdenstudio.sponge.foxcore.plugin.util.FCPUtil;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.Flag;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSetCache;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagRegistry;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.PermissionCache;
 import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.PermissionEntry;
 import net.foxdenstudio.sponge.foxguard.pluginold.listener.util.EventResult;
 import net.foxdenstudio.sponge.foxguard.pluginold.object.factory.IHandlerFactory;
@@ -66,8 +67,8 @@ import static net.foxdenstudio.sponge.foxcore.plugin.util.Aliases.*;
 public class PermissionHandler extends HandlerBase {
 
     private final List<PermissionEntry> entries;
-    private String defaultPermission;
-    private final Map<FlagSet, List<String>> permCache;
+    private volatile String defaultPermission;
+    private final FlagSetCache<Node[]> permCache;
 
     public PermissionHandler(String name, int priority, boolean isEnabled) {
         this(name, priority, isEnabled,
@@ -78,23 +79,24 @@ public class PermissionHandler extends HandlerBase {
         super(name, priority, isEnabled);
         this.entries = entries;
         this.defaultPermission = defaultPermission;
-        this.permCache = new CacheMap<>((k, m) -> {
-            if (k instanceof FlagSet) {
-                FlagSet flags = (FlagSet) k;
-                List<String> perms = new ArrayList<>();
-                final String prefix = "foxguard.handler." + this.name;
-                for (PermissionEntry entry : entries) {
-                    if (flags.toFlagSet().containsAll(entry.set)) {
-                        perms.add(expandPermission(entry.permission));
-                    }
+        this.permCache = new FlagSetCache<>(flags -> {
+            List<Node> nodes = new ArrayList<>();
+            for (PermissionEntry entry : this.entries) {
+                if (flags.toFlagSet().containsAll(entry.set)) {
+                    nodes.add(new Node(expandPermission(entry.permission)));
                 }
-                perms.add(expandPermission(defaultPermission));
-                m.put(flags, perms);
-                return perms;
-            } else return null;
+            }
+            nodes.add(new Node(expandPermission(this.defaultPermission)));
+            return nodes.toArray(new Node[nodes.size()]);
         });
     }
 
+    @Override
+    public void setName(String name) {
+        super.setName(name);
+        this.permCache.clear();
+    }
+
     @Override
     public String getShortTypeName() {
         return "Perm";
@@ -113,10 +115,11 @@ public class PermissionHandler extends HandlerBase {
     @Override
     public EventResult handle(@Nullable User user, FlagSet flags, ExtraContext extra) {
         if (user == null) return EventResult.pass();
-        for (String permission : this.permCache.get(flags)) {
-            if (user.hasPermission(permission + ".allow")) return EventResult.allow();
-            if (user.hasPermission(permission + ".deny")) return EventResult.deny();
-            if (user.hasPermission(permission + ".pass")) return EventResult.pass();
+        PermissionCache.Results permissions = PermissionCache.getInstance().get(user);
+        for (Node node : this.permCache.get(flags)) {
+            if (permissions.hasPermission(node.allow)) return EventResult.allow();
+            if (permissions.hasPermission(node.deny)) return EventResult.deny();
+            if (permissions.hasPermission(node.pass)) return EventResult.pass();
         }
         return EventResult.pass();
     }
@@ -339,6 +342,7 @@ public class PermissionHandler extends HandlerBase {
                 if (perm.startsWith("=")) perm = perm.substring(1);
                 if (checkPermissionString(perm)) {
                     defaultPermission = perm;
+                    this.permCache.clear();
                     return ProcessResult.of(true, Text.of(TextColors.GREEN, "Successfully set default permission to ",
                             TextColors.AQUA, "\"",
                             TextColors.RESET, expandPermission(perm),
@@ -349,6 +353,7 @@ public class PermissionHandler extends HandlerBase {
                 }
             } else {
                 defaultPermission = "";
+                this.permCache.clear();
                 return ProcessResult.of(true, "Successfully reset default permission!");
             }
         } else {
@@ -578,6 +583,7 @@ public class PermissionHandler extends HandlerBase {
         for (PermissionEntry groupEntry : this.entries) {
             if (groupEntry.set.equals(entry.set)) {
                 groupEntry.permission = entry.permission;
+                this.permCache.clear();
                 return;
             }
         }
@@ -662,6 +668,21 @@ public class PermissionHandler extends HandlerBase {
         return perm;
     }
 
+    /**
+     * The result nodes for one expanded permission, built when a flag set is first resolved rather than per event.
+     */
+    private static final class Node {
+        private final String allow;
+        private final String deny;
+        private final String pass;
+
+        private Node(String permission) {
+            this.allow = permission + ".allow";
+            this.deny = permission + ".deny";
+            this.pass = permission + ".pass";
+        }
+    }
+
     public static class Factory implements IHandlerFactory {
 
         public static final String[] ALIASES = {"perm", "perms", "permission", "permissions"};
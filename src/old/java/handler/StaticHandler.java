@@ -26,7 +26,6 @@
 package net.foxdenstudio.sponge.foxguard.pluginold.handler;
 
 import com.google.common.collect.ImmutableList;
-import net.foxdenstudio.sponge.foxcore.common.util.CacheMap;
 import net.foxdenstudio.sponge.foxcore.common.util.FCCUtil;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.AdvCmdParser;
 import net.foxdenstudio.sponge.foxcore.plugin.command.util.FlagMapper;
@@ -35,8 +34,10 @@ import net.foxdenstudio.sponge.foxcore.plugin.util.Aliases;
 import net.foxdenstudio.sponge.foxcore.plugin.util.FCPUtil;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.Flag;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.TristateCache;
 import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagRegistry;
 import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.TristateEntry;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.util.TristateTable;
 import net.foxdenstudio.sponge.foxguard.pluginold.listener.util.EventResult;
 import net.foxdenstudio.sponge.foxguard.pluginold.object.factory.IHandlerFactory;
 import net.foxdenstudio.sponge.foxguard.pluginold.util.ExtraContext;
@@ -75,7 +76,8 @@ public class StaticHandler extends HandlerBase {
     };
 
     private final List<TristateEntry> entries;
-    private final Map<FlagSet, Tristate> permCache;
+    private volatile TristateTable table = TristateTable.EMPTY;
+    private final TristateCache permCache;
 
     public StaticHandler(String name, int priority) {
         this(name, priority, true);
@@ -84,20 +86,7 @@ public class StaticHandler extends HandlerBase {
     public StaticHandler(String name, int priority, boolean isEnabled) {
         super(name, priority, isEnabled);
         this.entries = new ArrayList<>();
-        this.permCache = new CacheMap<>((k, m) -> {
-            if (k instanceof FlagSet) {
-                FlagSet flags = (FlagSet) k;
-                Tristate state = Tristate.UNDEFINED;
-                for (TristateEntry entry : StaticHandler.this.entries) {
-                    if (flags.toFlagSet().containsAll(entry.set)) {
-                        state = entry.tristate;
-                        break;
-                    }
-                }
-                m.put(flags, state);
-                return state;
-            } else return null;
-        });
+        this.permCache = new TristateCache(flags -> StaticHandler.this.table.get(flags, Tristate.UNDEFINED));
     }
 
     @Override
@@ -507,7 +496,7 @@ public class StaticHandler extends HandlerBase {
             if (groupEntry.set.equals(entry.set)) return false;
         }
         this.entries.add(index, entry);
-        this.permCache.clear();
+        recompile();
         return true;
     }
 
@@ -515,11 +504,12 @@ public class StaticHandler extends HandlerBase {
         for (TristateEntry groupEntry : this.entries) {
             if (groupEntry.set.equals(entry.set)) {
                 groupEntry.tristate = entry.tristate;
+                recompile();
                 return;
             }
         }
         this.entries.add(entry);
-        this.permCache.clear();
+        recompile();
     }
 
     public void setFlagEntry(int index, TristateEntry entry) {
@@ -532,7 +522,7 @@ public class StaticHandler extends HandlerBase {
         }
         if (original != null) this.entries.remove(original);
         this.entries.add(index, entry);
-        this.permCache.clear();
+        recompile();
     }
 
     public void setFlagEntry(int index, Tristate state) {
@@ -540,7 +530,7 @@ public class StaticHandler extends HandlerBase {
             throw new IndexOutOfBoundsException("Index out of bounds: " + index + " Range: 0-" + (this.entries.size() - 1));
         TristateEntry entry = this.entries.get(index);
         entry.tristate = state;
-        this.permCache.clear();
+        recompile();
     }
 
     public boolean removeFlagEntry(Set<Flag> flags) {
@@ -552,7 +542,7 @@ public class StaticHandler extends HandlerBase {
         }
         if (toRemove == null) return false;
         this.entries.remove(toRemove);
-        this.permCache.clear();
+        recompile();
         return true;
     }
 
@@ -560,7 +550,7 @@ public class StaticHandler extends HandlerBase {
         if (index < 0 || index >= this.entries.size())
             throw new IndexOutOfBoundsException("Index out of bounds: " + index + " Range: 0-" + (this.entries.size() - 1));
         this.entries.remove(index);
-        this.permCache.clear();
+        recompile();
     }
 
     public boolean moveFlagEntry(Set<Flag> flags, int destination) {
@@ -574,7 +564,7 @@ public class StaticHandler extends HandlerBase {
         }
         if (toMove == null) return false;
         this.entries.remove(toMove);
-        this.permCache.clear();
+        recompile();
         return true;
     }
 
@@ -585,6 +575,11 @@ public class StaticHandler extends HandlerBase {
             throw new IndexOutOfBoundsException("Destination index out of bounds: " + destination + " Range: 0-" + (this.entries.size() - 1));
         TristateEntry entry = this.entries.remove(source);
         this.entries.add(destination, entry);
+        recompile();
+    }
+
+    private void recompile() {
+        this.table = TristateTable.compile(this.entries);
         this.permCache.clear();
     }
 
@@ -605,7 +600,7 @@ public class StaticHandler extends HandlerBase {
                 .map(TristateEntry::deserialize)
                 .distinct()
                 .forEach(this.entries::add);
-        this.permCache.clear();
+        recompile();
     }
 
     public static class Factory implements IHandlerFactory {
@@ -0,0 +1,110 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.sponge.foxguard.pluginold.handler.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable bit set of group slots within a single handler.
+ * Small enough to serve directly as a cache key for a combination of groups.
+ */
+public final class GroupMask {
+
+    public static final GroupMask EMPTY = new GroupMask(new long[0]);
+
+    private final long[] words;
+    private final int hash;
+
+    private GroupMask(long[] words) {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == 0) length--;
+        this.words = length == words.length ? words : Arrays.copyOf(words, length);
+        this.hash = Arrays.hashCode(this.words);
+    }
+
+    public static GroupMask of(int slot) {
+        return EMPTY.with(slot);
+    }
+
+    public boolean get(int slot) {
+        int word = slot >>> 6;
+        return word < this.words.length && (this.words[word] & (1L << slot)) != 0;
+    }
+
+    public GroupMask with(int slot) {
+        if (get(slot)) return this;
+        long[] words = Arrays.copyOf(this.words, Math.max(this.words.length, (slot >>> 6) + 1));
+        words[slot >>> 6] |= 1L << slot;
+        return new GroupMask(words);
+    }
+
+    public GroupMask without(int slot) {
+        if (!get(slot)) return this;
+        long[] words = this.words.clone();
+        words[slot >>> 6] &= ~(1L << slot);
+        return new GroupMask(words);
+    }
+
+    public void forEachSlot(IntConsumer consumer) {
+        for (int i = 0; i < this.words.length; i++) {
+            for (long word = this.words[i]; word != 0; word &= word - 1) {
+                consumer.accept((i << 6) + Long.numberOfTrailingZeros(word));
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return this.words.length == 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        GroupMask that = (GroupMask) o;
+        return this.hash == that.hash && Arrays.equals(this.words, that.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("GroupMask{");
+        for (int i = 0; i < this.words.length; i++) {
+            long word = this.words[i];
+            while (word != 0) {
+                if (builder.length() > 10) builder.append(", ");
+                builder.append((i << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
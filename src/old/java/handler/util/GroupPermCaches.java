@@ -0,0 +1,206 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.sponge.foxguard.pluginold.handler.util;
+
+import com.google.common.collect.ImmutableList;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.TristateCache;
+import org.spongepowered.api.util.Tristate;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Permission caches for a handler's groups, its default group, and every combination of groups a user has been in.
+ * Also hands out each group's slot, its bit index in the handler's {@link GroupMask}s.
+ * <p>
+ * A combination's cache only holds what its groups decide, and callers fall back to the default group through
+ * {@link #get(TristateCache, FlagSet)}, so edits to the default group never touch combinations.
+ * Each combination is registered under the slots in its mask, so edits to a group only touch the combinations
+ * that include it. Group order is read from a snapshot that is replaced in one step,
+ * so a combination is never built from a half-moved list.
+ *
+ * @param <G> the handler's group type
+ */
+public final class GroupPermCaches<G> {
+
+    private static final TristateCache NO_GROUPS = new TristateCache(flags -> null);
+
+    /**
+     * Slots are never reused, so a mask read before a group was removed cannot alias a newer group.
+     */
+    private final Map<G, Integer> slots = new ConcurrentHashMap<>();
+    private int nextSlot = 0;
+    private final Function<G, TristateTable> tables;
+    private final TristateCache defaultCache;
+    private final Map<G, TristateCache> groupCaches = new ConcurrentHashMap<>();
+    private final Map<GroupMask, TristateCache> groupSetCaches = new ConcurrentHashMap<>();
+    /**
+     * For each group slot, the keys of the cached combinations that include it.
+     * Keys are only pruned when the group is removed or moved; stale keys elsewhere are harmless,
+     * since a combination key always denotes the same groups.
+     */
+    private final Map<Integer, Set<GroupMask>> dependents = new ConcurrentHashMap<>();
+    private volatile List<G> order;
+
+    /**
+     * @param order         the groups in handler order, excluding the default group. Each is given a slot, in order.
+     * @param tables        gives each group's compiled permissions, or null once it is removed
+     * @param defaultLoader resolves flags against the default group
+     */
+    public GroupPermCaches(List<G> order, Function<G, TristateTable> tables,
+                           Function<FlagSet, Tristate> defaultLoader) {
+        for (G group : order) {
+            assignSlot(group);
+        }
+        this.order = ImmutableList.copyOf(order);
+        this.tables = tables;
+        this.defaultCache = new TristateCache(defaultLoader);
+    }
+
+    /**
+     * Gives a new group its slot. Call before the group is added to the handler's order,
+     * so no thread can see the group without one.
+     */
+    public synchronized int assignSlot(G group) {
+        return this.slots.computeIfAbsent(group, g -> this.nextSlot++);
+    }
+
+    /**
+     * Returns the group's slot, or -1 if it was never given one or has been removed.
+     */
+    public int getSlot(G group) {
+        Integer slot = this.slots.get(group);
+        return slot == null ? -1 : slot;
+    }
+
+    @Nullable
+    public Tristate get(GroupMask mask, FlagSet flags) {
+        return get(getGroupSetCache(mask), flags);
+    }
+
+    /**
+     * Resolves flags against a combination's cache, falling back to the default group where no group decides.
+     */
+    @Nullable
+    public Tristate get(TristateCache groupSetCache, FlagSet flags) {
+        Tristate state = groupSetCache.get(flags);
+        return state != null ? state : this.defaultCache.get(flags);
+    }
+
+    public TristateCache getDefaultCache() {
+        return this.defaultCache;
+    }
+
+    public TristateCache getGroupCache(G group) {
+        return this.groupCaches.computeIfAbsent(group, g -> new TristateCache(flags -> {
+            TristateTable table = this.tables.apply(g);
+            return table == null ? null : table.get(flags, null);
+        }));
+    }
+
+    /**
+     * Returns the cache of what the given combination of groups decides, without the default group.
+     * Pass it to {@link #get(TristateCache, FlagSet)} to resolve flags.
+     */
+    public TristateCache getGroupSetCache(GroupMask mask) {
+        if (mask.isEmpty()) return NO_GROUPS;
+        return this.groupSetCaches.computeIfAbsent(mask, k -> {
+            // register before reading the order, so a concurrent reorder either drops this entry or was read by it
+            k.forEachSlot(slot -> this.dependents.computeIfAbsent(slot, s -> ConcurrentHashMap.newKeySet()).add(k));
+            ImmutableList.Builder<G> builder = ImmutableList.builder();
+            for (G group : this.order) {
+                int slot = getSlot(group);
+                if (slot >= 0 && k.get(slot)) builder.add(group);
+            }
+            List<G> list = builder.build();
+            return new TristateCache(flags -> {
+                for (G group : list) {
+                    Tristate state = getGroupCache(group).get(flags);
+                    if (state != null) return state;
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Call after the default group's permissions change.
+     */
+    public void clearDefault() {
+        this.defaultCache.clear();
+    }
+
+    /**
+     * Call after a group's permissions change. Clears, in place, the group's cache and every combination including it.
+     * Clearing swaps the cache's table, so references held by users or other threads stay valid.
+     */
+    public void clearGroup(G group) {
+        getGroupCache(group).clear();
+        Set<GroupMask> keys = this.dependents.get(getSlot(group));
+        if (keys == null) return;
+        for (GroupMask key : keys) {
+            TristateCache cache = this.groupSetCaches.get(key);
+            if (cache != null) cache.clear();
+        }
+    }
+
+    /**
+     * Call after a group is added or moved, with the new order.
+     * Combinations including it are dropped, since each one captures its groups in handler order.
+     */
+    public void reorder(List<G> order, G group) {
+        this.order = ImmutableList.copyOf(order);
+        dropGroupSets(getSlot(group));
+    }
+
+    /**
+     * Call after a group is removed, with the new order. The group's slot is released, but never handed out again.
+     */
+    public void remove(List<G> order, G group) {
+        reorder(order, group);
+        TristateCache cache = this.groupCaches.remove(group);
+        if (cache != null) cache.clear();
+        this.dependents.remove(getSlot(group));
+        this.slots.remove(group);
+    }
+
+    private void dropGroupSets(int slot) {
+        Set<GroupMask> keys = this.dependents.get(slot);
+        if (keys == null) return;
+        for (GroupMask key : keys) {
+            // unregister before dropping, so a combination rebuilt in between registers itself again afterwards
+            // instead of losing its registration and missing every later clear
+            keys.remove(key);
+            TristateCache cache = this.groupSetCaches.remove(key);
+            if (cache != null) cache.clear();
+        }
+    }
+}
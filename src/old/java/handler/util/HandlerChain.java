@@ -0,0 +1,98 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.sponge.foxguard.pluginold.handler.util;
+
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.handler.IHandler;
+import net.foxdenstudio.sponge.foxguard.pluginold.util.ExtraContext;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.util.Tristate;
+
+import javax.annotation.Nullable;
+
+/**
+ * A priority ordered run of handlers, evaluated the way every listener resolves an event:
+ * results within a priority tier are combined, and evaluation stops after the first tier that reaches a decision.
+ * <p>
+ * Tier boundaries are worked out once on construction, so evaluation never calls {@link IHandler#getPriority()}
+ * and allocates nothing of its own. RegionCache builds one per interned combination of regions; never build one per event.
+ */
+public final class HandlerChain {
+
+    public static final HandlerChain EMPTY = new HandlerChain(new IHandler[0], new int[0]);
+
+    private final IHandler[] handlers;
+    /**
+     * Exclusive end index into {@link #handlers} of each priority tier, in evaluation order.
+     */
+    private final int[] tierEnds;
+
+    private HandlerChain(IHandler[] handlers, int[] tierEnds) {
+        this.handlers = handlers;
+        this.tierEnds = tierEnds;
+    }
+
+    /**
+     * Builds a chain over handlers sorted from highest to lowest priority, as RegionCache resolves them.
+     * A new tier starts wherever the priority drops, exactly where the listener loops used to check.
+     */
+    public static HandlerChain of(IHandler[] handlers) {
+        if (handlers.length == 0) return EMPTY;
+        IHandler[] copy = handlers.clone();
+        int[] ends = new int[copy.length];
+        int tiers = 0;
+        int last = copy[0].getPriority();
+        for (int i = 1; i < copy.length; i++) {
+            int priority = copy[i].getPriority();
+            if (priority < last) ends[tiers++] = i;
+            last = priority;
+        }
+        ends[tiers++] = copy.length;
+        int[] tierEnds = new int[tiers];
+        System.arraycopy(ends, 0, tierEnds, 0, tiers);
+        return new HandlerChain(copy, tierEnds);
+    }
+
+    public Tristate evaluate(@Nullable User user, FlagSet flags, ExtraContext extra) {
+        Tristate state = Tristate.UNDEFINED;
+        int i = 0;
+        for (int end : this.tierEnds) {
+            for (; i < end; i++) {
+                state = state.and(this.handlers[i].handle(user, flags, extra).getState());
+            }
+            if (state != Tristate.UNDEFINED) break;
+        }
+        return state;
+    }
+
+    public boolean isEmpty() {
+        return this.handlers.length == 0;
+    }
+
+    public int size() {
+        return this.handlers.length;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.sponge.foxguard.pluginold.handler.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.FoxGuardMain;
+import org.spongepowered.api.entity.living.player.Player;
+import org.spongepowered.api.entity.living.player.User;
+import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
+import org.spongepowered.api.event.entity.MoveEntityEvent;
+import org.spongepowered.api.event.filter.Getter;
+import org.spongepowered.api.event.network.ClientConnectionEvent;
+import org.spongepowered.api.event.permission.SubjectDataUpdateEvent;
+import org.spongepowered.api.service.context.Context;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers {@link User#hasPermission(Set, String)} results per user and node, so handlers that check the same nodes
+ * on every event only go to the permission service once.
+ * <p>
+ * Results are kept for the set of active contexts they were resolved under, and start over as soon as the user's
+ * contexts differ, so region, world and any other calculator's contexts are honoured.
+ * They are also dropped wholesale whenever any subject's data changes, since a group change can affect any user,
+ * and per user when they log out or change worlds.
+ */
+public final class PermissionCache {
+
+    private static PermissionCache instance;
+
+    private final Cache<UUID, Results> results = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build();
+
+    private PermissionCache() {
+    }
+
+    public static synchronized PermissionCache getInstance() {
+        if (instance == null) {
+            instance = new PermissionCache();
+            FoxGuardMain.instance().registerListeners(instance);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the user's cached results for their current contexts.
+     * The returned object stays identical until those results are invalidated or the contexts change,
+     * so callers can compare it by reference to tell whether anything derived from it may have changed.
+     * Fetch it once per check rather than per node, since working out the active contexts is not free.
+     */
+    public Results get(User user) {
+        Set<Context> contexts = user.getActiveContexts();
+        Results userResults = this.results.getIfPresent(user.getUniqueId());
+        if (userResults == null || !userResults.contexts.equals(contexts)) {
+            userResults = new Results(user, ImmutableSet.copyOf(contexts));
+            this.results.put(user.getUniqueId(), userResults);
+        }
+        return userResults;
+    }
+
+    public boolean hasPermission(User user, String node) {
+        return get(user).hasPermission(node);
+    }
+
+    public void invalidate(UUID user) {
+        this.results.invalidate(user);
+    }
+
+    public void invalidateAll() {
+        this.results.invalidateAll();
+    }
+
+    @Listener(order = Order.POST)
+    public void onSubjectDataUpdate(SubjectDataUpdateEvent event) {
+        invalidateAll();
+    }
+
+    @Listener(order = Order.POST)
+    public void onDisconnect(ClientConnectionEvent.Disconnect event, @Getter("getTargetEntity") Player player) {
+        invalidate(player.getUniqueId());
+    }
+
+    @Listener(order = Order.POST)
+    public void onTeleport(MoveEntityEvent.Teleport event, @Getter("getTargetEntity") Player player) {
+        if (!event.getFromTransform().getExtent().equals(event.getToTransform().getExtent())) {
+            invalidate(player.getUniqueId());
+        }
+    }
+
+    public static final class Results {
+        private final User user;
+        private final Set<Context> contexts;
+        private final Map<String, Boolean> nodes = new ConcurrentHashMap<>();
+
+        private Results(User user, Set<Context> contexts) {
+            this.user = user;
+            this.contexts = contexts;
+        }
+
+        public boolean hasPermission(String node) {
+            Boolean result = this.nodes.get(node);
+            if (result == null) result = refresh(node);
+            return result;
+        }
+
+        /**
+         * Asks the permission service again, regardless of any cached answer, and caches the fresh one.
+         */
+        public boolean refresh(String node) {
+            boolean result = this.user.hasPermission(this.contexts, node);
+            this.nodes.put(node, result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.sponge.foxguard.pluginold.handler.util;
+
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import org.spongepowered.api.util.Tristate;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Compiled form of an ordered list of {@link TristateEntry}s.
+ * Each entry becomes a (mask, state) pair, so resolving a flag set is a loop of word-wise subset tests.
+ * Tables are immutable and must be recompiled whenever the source entries change.
+ */
+public final class TristateTable {
+
+    public static final TristateTable EMPTY = new TristateTable(new FlagSet[0], new Tristate[0]);
+
+    private final FlagSet[] masks;
+    private final Tristate[] states;
+
+    private TristateTable(FlagSet[] masks, Tristate[] states) {
+        this.masks = masks;
+        this.states = states;
+    }
+
+    public static TristateTable compile(List<TristateEntry> entries) {
+        if (entries.isEmpty()) return EMPTY;
+        FlagSet[] masks = new FlagSet[entries.size()];
+        Tristate[] states = new Tristate[entries.size()];
+        for (int i = 0; i < masks.length; i++) {
+            TristateEntry entry = entries.get(i);
+            masks[i] = FlagSet.of(entry.set);
+            states[i] = entry.tristate;
+        }
+        return new TristateTable(masks, states);
+    }
+
+    /**
+     * Finds the state of the first entry whose flags are all contained in the given set.
+     *
+     * @param flags        the flags of the event being checked
+     * @param defaultState the state to return if no entry matches
+     * @return the matching entry's state, or {@code defaultState}
+     */
+    @Nullable
+    public Tristate get(FlagSet flags, @Nullable Tristate defaultState) {
+        for (int i = 0; i < masks.length; i++) {
+            if (flags.containsAll(masks[i])) return states[i];
+        }
+        return defaultState;
+    }
+
+    public int size() {
+        return masks.length;
+    }
+}
@@ -0,0 +1,316 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.sponge.foxguard.pluginold.handler.util;
+
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.Flag;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagRegistry;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.FlagSet;
+import net.foxdenstudio.sponge.foxguard.pluginold.flag.Flags;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.spongepowered.api.util.Tristate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that group edits reach every cached combination that includes the group,
+ * and times the invalidation paths for a handler with many groups.
+ */
+public class GroupPermCachesTest {
+
+    private static final int FLAG_BITS = 8;
+    private static final int GROUPS = 500;
+    private static final int COMBINATIONS = 5000;
+    private static final Tristate[] STATES = {Tristate.TRUE, Tristate.FALSE, Tristate.UNDEFINED};
+
+    private static List<Flag> flags;
+    private static List<FlagSet> flagSets;
+
+    @BeforeClass
+    public static void registerFlags() {
+        assertTrue(Flags.ROOT.id < FLAG_BITS);
+        flags = new ArrayList<>();
+        for (int i = 0; i < FLAG_BITS; i++) {
+            flags.add(FlagRegistry.getInstance().getFlag(i));
+        }
+        flagSets = new ArrayList<>();
+        for (int bits = 0; bits < 1 << FLAG_BITS; bits++) {
+            flagSets.add(newSet(bits));
+        }
+    }
+
+    @Test
+    public void resolvesGroupsInOrderThenDefault() {
+        Handler handler = new Handler(new Random(1), 20);
+        List<GroupMask> masks = handler.randomMasks(new Random(2), 200);
+        handler.assertConsistent(masks);
+
+        Random random = new Random(3);
+        for (int i = 0; i < 50; i++) {
+            TestGroup group = handler.order.get(random.nextInt(handler.order.size()));
+            switch (random.nextInt(4)) {
+                case 0:
+                    handler.edit(group, random);
+                    break;
+                case 1:
+                    handler.editDefault(random);
+                    break;
+                case 2:
+                    handler.move(group, random.nextInt(handler.order.size()));
+                    break;
+                default:
+                    handler.add(random);
+            }
+            handler.assertConsistent(masks);
+        }
+    }
+
+    @Test
+    public void clearGroupReachesCombinationsRebuiltDuringReorder() throws Exception {
+        Random random = new Random(4);
+        Handler handler = new Handler(random, 8);
+        TestGroup moved = handler.order.get(0);
+        // every combination includes the moved group, so each move drops all of them while the readers rebuild them
+        List<GroupMask> masks = new ArrayList<>();
+        for (GroupMask mask : handler.randomMasks(random, 8)) {
+            masks.add(mask.with(handler.caches.getSlot(moved)));
+        }
+        FlagSet flagSet = flagSets.get(flagSets.size() - 1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean done = new AtomicBoolean(false);
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(() -> {
+                    while (!done.get()) {
+                        for (GroupMask mask : masks) {
+                            handler.caches.get(mask, flagSet);
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (int round = 0; round < 20000; round++) {
+                handler.move(moved, (round * 7) % handler.order.size());
+            }
+            done.set(true);
+            for (Future<?> future : readers) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+        // a combination that lost its registration under the moved group would keep serving the old table here
+        handler.assertConsistent(masks);
+        for (int i = 0; i < 10; i++) {
+            handler.edit(moved, random);
+            handler.assertConsistent(masks);
+        }
+    }
+
+    /**
+     * Not a strict benchmark, but enough to catch an edit path that starts walking every combination again.
+     */
+    @Test
+    public void editLatencyWith500Groups() {
+        Random random = new Random(5);
+        Handler handler = new Handler(random, GROUPS);
+        List<GroupMask> masks = handler.randomMasks(random, COMBINATIONS);
+        handler.warm(masks);
+
+        long start = System.nanoTime();
+        for (TestGroup group : handler.order) {
+            handler.edit(group, random);
+        }
+        long groupEdits = System.nanoTime() - start;
+
+        handler.warm(masks);
+        start = System.nanoTime();
+        for (int i = 0; i < GROUPS; i++) {
+            handler.editDefault(random);
+        }
+        long defaultEdits = System.nanoTime() - start;
+
+        handler.warm(masks);
+        start = System.nanoTime();
+        for (int i = 0; i < GROUPS; i++) {
+            handler.move(handler.order.get(random.nextInt(GROUPS)), random.nextInt(GROUPS));
+        }
+        long moves = System.nanoTime() - start;
+
+        handler.warm(masks);
+        start = System.nanoTime();
+        for (int i = 0; i < 50; i++) {
+            handler.remove(handler.order.get(random.nextInt(handler.order.size())));
+        }
+        long removals = System.nanoTime() - start;
+
+        System.out.println(String.format("%d groups, %d combinations: group edit %.1fus, default edit %.1fus, "
+                        + "move %.1fus, removal %.1fus",
+                GROUPS, COMBINATIONS, groupEdits / 1000.0 / GROUPS, defaultEdits / 1000.0 / GROUPS,
+                moves / 1000.0 / GROUPS, removals / 1000.0 / 50));
+        // each group is in about 1% of combinations, so an edit should be far from a full pass over them
+        assertTrue("group edits took " + groupEdits / 1000000 + "ms", groupEdits < TimeUnit.SECONDS.toNanos(1));
+        assertTrue("default edits took " + defaultEdits / 1000000 + "ms", defaultEdits < TimeUnit.SECONDS.toNanos(1));
+        assertTrue("moves took " + moves / 1000000 + "ms", moves < TimeUnit.SECONDS.toNanos(1));
+        handler.assertConsistent(masks.subList(0, 100));
+    }
+
+    private static FlagSet newSet(int bits) {
+        List<Flag> set = new ArrayList<>();
+        for (int i = 0; i < FLAG_BITS; i++) {
+            if ((bits & (1 << i)) != 0) set.add(flags.get(i));
+        }
+        return FlagSet.of(set);
+    }
+
+    private static TristateTable randomTable(Random random) {
+        List<TristateEntry> entries = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            entries.add(new TristateEntry(STATES[random.nextInt(STATES.length)],
+                    flags.get(random.nextInt(FLAG_BITS)), flags.get(random.nextInt(FLAG_BITS))));
+        }
+        return TristateTable.compile(entries);
+    }
+
+    private static final class TestGroup {
+        private final String name;
+
+        private TestGroup(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return this.name;
+        }
+    }
+
+    /**
+     * Drives the caches the way a handler does, and resolves the same lookups from scratch to check them against.
+     */
+    private static final class Handler {
+        private final List<TestGroup> order = Collections.synchronizedList(new ArrayList<>());
+        private final Map<TestGroup, TristateTable> tables = new ConcurrentHashMap<>();
+        private volatile TristateTable defaultTable;
+        private final GroupPermCaches<TestGroup> caches;
+        private int created = 0;
+
+        private Handler(Random random, int groups) {
+            for (int i = 0; i < groups; i++) {
+                TestGroup group = new TestGroup("group" + this.created++);
+                this.order.add(group);
+                this.tables.put(group, randomTable(random));
+            }
+            this.defaultTable = randomTable(random);
+            this.caches = new GroupPermCaches<>(this.order, this.tables::get,
+                    flags -> this.defaultTable.get(flags, Tristate.UNDEFINED));
+        }
+
+        private List<GroupMask> randomMasks(Random random, int count) {
+            List<GroupMask> masks = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                GroupMask mask = GroupMask.EMPTY;
+                for (int j = 1 + random.nextInt(5); j > 0; j--) {
+                    mask = mask.with(this.caches.getSlot(this.order.get(random.nextInt(this.order.size()))));
+                }
+                masks.add(mask);
+            }
+            return masks;
+        }
+
+        private void warm(List<GroupMask> masks) {
+            for (GroupMask mask : masks) {
+                for (int bits = 0; bits < flagSets.size(); bits += 17) {
+                    this.caches.get(mask, flagSets.get(bits));
+                }
+            }
+        }
+
+        private void edit(TestGroup group, Random random) {
+            this.tables.put(group, randomTable(random));
+            this.caches.clearGroup(group);
+        }
+
+        private void editDefault(Random random) {
+            this.defaultTable = randomTable(random);
+            this.caches.clearDefault();
+        }
+
+        private void move(TestGroup group, int index) {
+            synchronized (this.order) {
+                this.order.remove(group);
+                this.order.add(index, group);
+                this.caches.reorder(new ArrayList<>(this.order), group);
+            }
+        }
+
+        private void add(Random random) {
+            TestGroup group = new TestGroup("group" + this.created++);
+            this.tables.put(group, randomTable(random));
+            this.caches.assignSlot(group);
+            this.order.add(group);
+            this.caches.reorder(this.order, group);
+        }
+
+        private void remove(TestGroup group) {
+            this.order.remove(group);
+            this.tables.remove(group);
+            this.caches.remove(this.order, group);
+        }
+
+        private Tristate resolve(GroupMask mask, FlagSet flags) {
+            for (TestGroup group : this.order) {
+                if (!mask.get(this.caches.getSlot(group))) continue;
+                Tristate state = this.tables.get(group).get(flags, null);
+                if (state != null) return state;
+            }
+            return this.defaultTable.get(flags, Tristate.UNDEFINED);
+        }
+
+        private void assertConsistent(List<GroupMask> masks) {
+            for (GroupMask mask : masks) {
+                for (FlagSet flags : flagSets) {
+                    assertEquals(resolve(mask, flags), this.caches.get(mask, flags));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.flag;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.spongepowered.api.util.Tristate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Hammers {@link TristateCache} and {@link FlagSetCache} from many threads at once,
+ * while the tables grow, flag sets are interned for the first time and caches are cleared underneath the readers.
+ */
+public class FlagCacheConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int FLAG_BITS = 10;
+    private static final int ROUNDS = 20;
+    private static final Tristate[] STATES = {Tristate.TRUE, Tristate.FALSE, Tristate.UNDEFINED, null};
+
+    private static List<Flag> flags;
+
+    @BeforeClass
+    public static void registerFlags() {
+        assertTrue(Flags.ROOT.id < FLAG_BITS);
+        flags = new ArrayList<>();
+        for (int i = 0; i < FLAG_BITS; i++) {
+            flags.add(FlagRegistry.getInstance().getFlag(i));
+        }
+    }
+
+    @Test
+    public void tristateCacheReturnsLoaderResults() throws Exception {
+        TristateCache cache = new TristateCache(FlagCacheConcurrencyTest::expectedState);
+        runReaders(cache::clear, random -> {
+            for (int bits : shuffledBits(random)) {
+                assertEquals(expectedState(bits), cache.get(newSet(bits)));
+            }
+        });
+    }
+
+    @Test
+    public void flagSetCacheReturnsLoaderResults() throws Exception {
+        FlagSetCache<Integer> cache = new FlagSetCache<>(FlagCacheConcurrencyTest::expectedValue);
+        runReaders(cache::clear, random -> {
+            for (int bits : shuffledBits(random)) {
+                assertEquals(expectedValue(bits), cache.get(newSet(bits)));
+            }
+        });
+    }
+
+    @Test
+    public void flagSetCacheNeverServesResultsFromBeforeClear() throws Exception {
+        VersionedSource source = new VersionedSource();
+        FlagSetCache<Integer> cache = new FlagSetCache<>(flagSet -> source.read());
+        runReaders(source.updater(cache::clear), random -> {
+            for (int bits : shuffledBits(random)) {
+                int published = source.published;
+                int value = cache.get(newSet(bits));
+                assertTrue("served " + value + " after clearing for " + published, value >= published);
+            }
+        });
+    }
+
+    @Test
+    public void tristateCacheNeverServesResultsFromBeforeClear() throws Exception {
+        VersionedSource source = new VersionedSource();
+        TristateCache cache = new TristateCache(flagSet -> STATES[source.read() & 1]);
+        // Only the latest of two states can be told apart, so readers check against the version they saw
+        // both before and after the lookup; if it did not move, the result must match it.
+        runReaders(source.updater(cache::clear), random -> {
+            for (int bits : shuffledBits(random)) {
+                int before = source.published;
+                Tristate state = cache.get(newSet(bits));
+                if (before == source.version) assertEquals(STATES[before & 1], state);
+            }
+        });
+    }
+
+    private static void runReaders(Runnable writer, ReaderTask reader) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean done = new AtomicBoolean(false);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> readers = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                Random random = new Random(i);
+                readers.add(executor.submit(() -> {
+                    start.await();
+                    for (int round = 0; round < ROUNDS && !done.get(); round++) {
+                        reader.run(random);
+                    }
+                    return null;
+                }));
+            }
+            Future<?> writerFuture = executor.submit(() -> {
+                start.await();
+                while (!done.get()) {
+                    writer.run();
+                    Thread.yield();
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> future : readers) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            done.set(true);
+            writerFuture.get(60, TimeUnit.SECONDS);
+        } finally {
+            // stops the other readers and the writer as well when one reader fails
+            done.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    private static List<Integer> shuffledBits(Random random) {
+        List<Integer> list = new ArrayList<>(1 << FLAG_BITS);
+        for (int bits = 0; bits < 1 << FLAG_BITS; bits++) {
+            list.add(bits);
+        }
+        Collections.shuffle(list, random);
+        return list;
+    }
+
+    private static FlagSet newSet(int bits) {
+        List<Flag> set = new ArrayList<>();
+        for (int i = 0; i < FLAG_BITS; i++) {
+            if ((bits & (1 << i)) != 0) set.add(flags.get(i));
+        }
+        return FlagSet.of(set);
+    }
+
+    private static int bits(FlagSet flagSet) {
+        int bits = 0;
+        for (int i = 0; i < FLAG_BITS; i++) {
+            if (flagSet.get(i)) bits |= 1 << i;
+        }
+        return bits;
+    }
+
+    private static Tristate expectedState(int bits) {
+        return STATES[Integer.bitCount(bits) & 3];
+    }
+
+    private static Tristate expectedState(FlagSet flagSet) {
+        return expectedState(bits(flagSet));
+    }
+
+    private static Integer expectedValue(int bits) {
+        return bits;
+    }
+
+    private static Integer expectedValue(FlagSet flagSet) {
+        return bits(flagSet);
+    }
+
+    private interface ReaderTask {
+        void run(Random random) throws Exception;
+    }
+
+    /**
+     * A loader source that only ever moves forward. {@link #published} is raised once the cache has been cleared
+     * for a version, so no lookup that starts afterwards may see anything older.
+     */
+    private static final class VersionedSource {
+        private volatile int version = 0;
+        private volatile int published = 0;
+
+        /**
+         * Reads the current version and then yields, so loaders are often still running when the cache is cleared.
+         */
+        private int read() {
+            int version = this.version;
+            Thread.yield();
+            return version;
+        }
+
+        private Runnable updater(Runnable clear) {
+            return () -> {
+                int next = this.version + 1;
+                this.version = next;
+                clear.run();
+                this.published = next;
+            };
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.listener;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.spongepowered.api.entity.Entity;
+import org.spongepowered.api.entity.living.player.Player;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the passenger walk that runs on every move event, and compares it against the set-based walk it replaced.
+ */
+public class PassengerStackTest {
+
+    private static final int WARMUP = 200000;
+    private static final int EVENTS = 2000000;
+
+    @Test
+    public void collectsEveryPlayerInTheTree() {
+        Player rider = player("rider");
+        Player pigRider = player("pigRider");
+        Entity pig = entity("pig", pigRider);
+        Entity boat = entity("boat", rider, pig);
+
+        assertEquals(Collections.emptyList(), collect(entity("zombie")));
+        assertEquals(Collections.singletonList(rider), collect(rider));
+        assertEquals(Arrays.asList(rider, pigRider), collect(boat));
+
+        Player driver = player("driver", boat);
+        assertEquals(Arrays.asList(driver, rider, pigRider), collect(driver));
+    }
+
+    @Test
+    public void nestedWalksDoNotShareTheBuffer() {
+        Player outer = player("outer");
+        Player inner = player("inner");
+        List<Player> outerStack = PlayerMoveListener.getPassengerStack(outer);
+        try {
+            // a handler moving another entity from inside a move event
+            List<Player> innerStack = PlayerMoveListener.getPassengerStack(inner);
+            try {
+                assertNotSame(outerStack, innerStack);
+                assertEquals(Collections.singletonList(inner), innerStack);
+            } finally {
+                PlayerMoveListener.releasePassengerStack(innerStack);
+            }
+            assertEquals(Collections.singletonList(outer), outerStack);
+        } finally {
+            PlayerMoveListener.releasePassengerStack(outerStack);
+        }
+        assertEquals(Collections.singletonList(inner), collect(inner));
+    }
+
+    @Test
+    public void lonePlayerAllocatesNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        Player player = player("player");
+        int sink = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            sink += walk(player);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < EVENTS; i++) {
+            sink += walk(player);
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertEquals(WARMUP + EVENTS, sink);
+        // a fresh singleton list per event would be well over a byte an event
+        assertTrue("allocated " + allocated + " bytes over " + EVENTS + " events", allocated < EVENTS / 10);
+    }
+
+    /**
+     * Not a strict benchmark, but prints before and after costs for the common shapes of move event.
+     */
+    @Test
+    public void passengerWalkBenchmark() {
+        Entity[] shapes = {
+                player("lone player"),
+                entity("lone mob"),
+                entity("boat", player("rider"), player("passenger"))
+        };
+        for (Entity shape : shapes) {
+            int sink = 0;
+            for (int i = 0; i < WARMUP; i++) {
+                sink += walk(shape) + setWalk(shape).size();
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                sink += setWalk(shape).size();
+            }
+            long before = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                sink += walk(shape);
+            }
+            long after = System.nanoTime() - start;
+            System.out.println(String.format("%s: %.1fns per event before, %.1fns after",
+                    shape, (double) before / EVENTS, (double) after / EVENTS));
+            assertTrue(sink >= 0);
+        }
+    }
+
+    private static int walk(Entity entity) {
+        List<Player> players = PlayerMoveListener.getPassengerStack(entity);
+        try {
+            return players.size();
+        } finally {
+            PlayerMoveListener.releasePassengerStack(players);
+        }
+    }
+
+    /**
+     * The walk this listener used before, which built a new set at every level of the tree.
+     */
+    private static Set<Player> setWalk(Entity e) {
+        Set<Player> set = new HashSet<>();
+        if (e instanceof Player) set.add((Player) e);
+        for (Entity passenger : e.getPassengers()) {
+            set.addAll(setWalk(passenger));
+        }
+        return set;
+    }
+
+    private static List<Player> collect(Entity entity) {
+        List<Player> players = PlayerMoveListener.getPassengerStack(entity);
+        try {
+            return new ArrayList<>(players);
+        } finally {
+            PlayerMoveListener.releasePassengerStack(players);
+        }
+    }
+
+    private static Player player(String name, Entity... passengers) {
+        return (Player) proxy(Player.class, name, passengers);
+    }
+
+    private static Entity entity(String name, Entity... passengers) {
+        return proxy(Entity.class, name, passengers);
+    }
+
+    /**
+     * Only what the walk touches is answered. Anything else fails the test, rather than quietly returning null.
+     */
+    private static Entity proxy(Class<? extends Entity> type, String name, Entity... passengers) {
+        List<Entity> list = Collections.unmodifiableList(Arrays.asList(passengers));
+        return (Entity) Proxy.newProxyInstance(PassengerStackTest.class.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getPassengers":
+                            return list;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return name;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * This file is part of FoxGuard, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) gravityfox - https://gravityfox.net/
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package net.foxdenstudio.foxsuite.foxguard.sponge.pluginold.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChunkMapTest {
+
+    @Test
+    public void packsNegativeCoordinates() {
+        int[] coords = {0, 1, -1, 15, -16, Integer.MAX_VALUE, Integer.MIN_VALUE, 1875000, -1875000};
+        Set<Long> keys = new HashSet<>();
+        for (int x : coords) {
+            for (int z : coords) {
+                long key = ChunkMap.key(x, z);
+                assertEquals(x, ChunkMap.keyX(key));
+                assertEquals(z, ChunkMap.keyZ(key));
+                keys.add(key);
+            }
+        }
+        assertEquals(coords.length * coords.length, keys.size());
+        assertEquals(ChunkMap.key(-1, -1), ChunkMap.keyAtBlock(-1, -16));
+        assertEquals(ChunkMap.key(-2, 0), ChunkMap.keyAtBlock(-17, 15));
+    }
+
+    @Test
+    public void putGetRemoveWithNegativeKeys() {
+        ChunkMap<String> map = new ChunkMap<>();
+        for (int x = -3; x <= 3; x++) {
+            for (int z = -3; z <= 3; z++) {
+                assertNull(map.put(ChunkMap.key(x, z), x + "," + z));
+            }
+        }
+        assertEquals(49, map.size());
+        for (int x = -3; x <= 3; x++) {
+            for (int z = -3; z <= 3; z++) {
+                assertEquals(x + "," + z, map.get(x, z));
+            }
+        }
+        assertEquals("-1,-1", map.put(ChunkMap.key(-1, -1), "replaced"));
+        assertEquals("replaced", map.get(-1, -1));
+        assertEquals(49, map.size());
+
+        assertEquals("-3,2", map.remove(ChunkMap.key(-3, 2)));
+        assertNull(map.get(-3, 2));
+        assertNull(map.remove(ChunkMap.key(-3, 2)));
+        assertNull(map.remove(ChunkMap.key(4, 4)));
+        assertEquals(48, map.size());
+        assertEquals("3,-2", map.get(3, -2));
+    }
+
+    @Test
+    public void collidingKeysShareAProbeChain() {
+        ChunkMap<Long> map = new ChunkMap<>();
+        List<Long> keys = collidingKeys(map, 0, 4);
+        for (long key : keys) {
+            map.put(key, key);
+        }
+        for (long key : keys) {
+            assertEquals((Long) key, map.get(key));
+        }
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    public void removeInsideProbeChainKeepsLaterEntriesReachable() {
+        for (int removed = 0; removed < 4; removed++) {
+            ChunkMap<Long> map = new ChunkMap<>();
+            List<Long> keys = collidingKeys(map, 0, 4);
+            // a key from the next bucket, which ends up behind the chain and must shift back with it
+            long neighbour = collidingKeys(map, 1, 1).get(0);
+            for (long key : keys) {
+                map.put(key, key);
+            }
+            map.put(neighbour, neighbour);
+
+            assertEquals(keys.get(removed), map.remove(keys.get(removed)));
+            assertNull(map.get(keys.get(removed)));
+            for (int i = 0; i < keys.size(); i++) {
+                if (i != removed) assertEquals(keys.get(i), map.get(keys.get(i)));
+            }
+            assertEquals((Long) neighbour, map.get(neighbour));
+            assertEquals(4, map.size());
+        }
+    }
+
+    @Test
+    public void probeChainWrapsAroundTheTable() {
+        ChunkMap<Long> map = new ChunkMap<>();
+        List<Long> keys = collidingKeys(map, map.capacity() - 1, 3);
+        for (long key : keys) {
+            map.put(key, key);
+        }
+        assertEquals(keys.get(1), map.remove(keys.get(1)));
+        assertEquals(keys.get(0), map.get(keys.get(0)));
+        assertEquals(keys.get(2), map.get(keys.get(2)));
+        assertEquals(keys.get(0), map.remove(keys.get(0)));
+        assertEquals(keys.get(2), map.get(keys.get(2)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void growsPastResizeThreshold() {
+        ChunkMap<Long> map = new ChunkMap<>(4);
+        int initial = map.capacity();
+        List<Long> keys = new ArrayList<>();
+        for (int x = -20; x < 20; x++) {
+            for (int z = -20; z < 20; z++) {
+                long key = ChunkMap.key(x, z);
+                keys.add(key);
+                map.put(key, key);
+            }
+        }
+        assertTrue(map.capacity() > initial);
+        assertTrue(map.size() <= map.capacity() / 2);
+        assertEquals(keys.size(), map.size());
+        for (long key : keys) {
+            assertEquals((Long) key, map.get(key));
+        }
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(42);
+        ChunkMap<Integer> map = new ChunkMap<>(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int op = 0; op < 200000; op++) {
+            // a small range of coordinates, so keys are reused and chains form and break up constantly
+            long key = ChunkMap.key(random.nextInt(64) - 32, random.nextInt(64) - 32);
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(key, op), map.put(key, op));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        List<Integer> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertEquals(expected.size(), values.size());
+        assertTrue(values.containsAll(expected.values()));
+    }
+
+    @Test
+    public void computeIfAbsentAndClear() {
+        ChunkMap<String> map = new ChunkMap<>();
+        long key = ChunkMap.key(-5, 7);
+        assertEquals("a", map.computeIfAbsent(key, k -> "a"));
+        assertEquals("a", map.computeIfAbsent(key, k -> "b"));
+        assertNull(map.computeIfAbsent(ChunkMap.key(1, 1), k -> null));
+        assertFalse(map.containsKey(ChunkMap.key(1, 1)));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(key));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNullValues() {
+        new ChunkMap<String>().put(0L, null);
+    }
+
+    /**
+     * Finds keys, in ascending chunk order, that all land in the given bucket of a map at its current capacity.
+     */
+    private static List<Long> collidingKeys(ChunkMap<?> map, int bucket, int count) {
+        List<Long> keys = new ArrayList<>();
+        for (int x = -1000; keys.size() < count; x++) {
+            long key = ChunkMap.key(x, -x);
+            if (map.index(key) == bucket) keys.add(key);
+        }
+        return keys;
+    }
+}